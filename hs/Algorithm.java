@@ -0,0 +1,66 @@
+
+package hs;
+
+/**
+ * Election algorithms a Node can run, picked with -Dhs.election.
+ */
+public enum Algorithm {
+    HS,
+    LCR,
+    PETERSON,
+    FRANKLIN;
+
+    public static final String PROPERTY = "hs.election";
+
+    //Algorithm configured for this JVM, Hirschberg-Sinclair by default
+    public static Algorithm configured() {
+        String name = System.getProperty( PROPERTY, "hs" ).trim();
+
+        for( Algorithm a : values() )
+            if( a.name().equalsIgnoreCase( name ) )
+                return a;
+
+        Logger.warn( "Unknown election algorithm " + name + ", using " + HS, null );
+        return HS;
+    }
+
+    //Relies on every link delivering in the order sent
+    public boolean fifo() {
+        return this == PETERSON || this == FRANKLIN;
+    }
+
+    //Fresh per-node state for this algorithm
+    public Election newElection() {
+        switch( this ) {
+            case LCR:
+                return new ChangRoberts();
+            case PETERSON:
+                return new Peterson();
+            case FRANKLIN:
+                return new Franklin();
+            case HS:
+            default:
+                return new HirschbergSinclair();
+        }
+    }
+
+    @Override
+    public String toString() {
+        String ret = super.toString();
+        switch( this ) {
+            case HS:
+                ret = "Hirschberg-Sinclair";
+                break;
+            case LCR:
+                ret = "Chang-Roberts";
+                break;
+            case PETERSON:
+                ret = "Peterson";
+                break;
+            case FRANKLIN:
+                ret = "Franklin";
+                break;
+        }
+        return ret;
+    }
+}
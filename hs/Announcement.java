@@ -0,0 +1,42 @@
+package hs;
+
+/**
+ * How the winner's ANNOUNCEMENT reaches the ring, picked with -Dhs.announce
+ * on the Ringer and handed to every node in its {@link Wiring}.
+ */
+public enum Announcement {
+    RING, //Hop by hop to the right, back to the leader: n hops
+    BOTH, //Around the ring both ways, the waves stop where they meet: n/2 hops
+    TREE; //Along power-of-two skip pointers as a binomial tree: log2(n) hops
+
+    public static final String PROPERTY = "hs.announce";
+
+    //Mode configured for this JVM, around the ring by default
+    public static Announcement configured() {
+        String name = System.getProperty( PROPERTY, "ring" ).trim();
+
+        for( Announcement a : values() )
+            if( a.name().equalsIgnoreCase( name ) )
+                return a;
+
+        Logger.warn( "Unknown announcement mode " + name + ", using " + RING, null );
+        return RING;
+    }
+
+    @Override
+    public String toString() {
+        String ret = super.toString();
+        switch( this ) {
+            case RING:
+                ret = "Ring";
+                break;
+            case BOTH:
+                ret = "Both ways";
+                break;
+            case TREE:
+                ret = "Tree";
+                break;
+        }
+        return ret;
+    }
+}
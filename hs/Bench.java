@@ -0,0 +1,288 @@
+
+package hs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+
+/**
+ * Microbenchmarks for the per-message hot paths: Node.processProbe() per
+ * message type, Probe encoding, Logger calls, Mailbox enqueue/dequeue,
+ * latency recording and ReportSet aggregation.
+ *
+ * Each benchmark is warmed up, then timed over several iterations; the mean
+ * and standard deviation of ns/op are printed. The node under test runs
+ * in-memory against sink neighbours that only count what they receive, so
+ * no RMI or sockets are involved. Console output of the code under test is
+ * discarded while measuring.
+ *
+ * Usage: java hs/Bench [filter] [iterations] [milliseconds per iteration]
+ */
+public class Bench {
+
+    private static volatile long blackhole; //Keeps results alive
+
+    private static int iterations = 5;
+    private static long iterationMillis = 1000;
+    private static String filter = "";
+
+    private static final PrintStream console = System.out;
+    private static final PrintStream discard = new PrintStream( new OutputStream() {
+        @Override
+        public void write( int b ) {
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) {
+        }
+    });
+
+    //One benchmarked operation
+    private static abstract class Op {
+        final String name;
+
+        Op( String name ) { this.name = name; }
+
+        abstract void run() throws Exception;
+    }
+
+    //Neighbour that swallows everything it is sent
+    private static class Sink implements NodeService {
+        long received = 0;
+
+        public void probe( MessageType type, Direction direction ) {}
+        public void wire( Wiring wiring ) {}
+        public NodeService left() { return null; }
+        public NodeService right() { return null; }
+        public void activate() {}
+        public void elect( int epoch ) {}
+        public void ping() {}
+        public void follow( Leadership leadership ) {}
+        public void shutdown() {}
+        public Leadership leader() { return null; }
+        public void send( Probe probe ) { received++; }
+        public void sendBatch( Probe[] probes ) { received += probes.length; }
+        public Probe receive() { return null; }
+        public long pid() { return 0; }
+        public String endpoint() { return null; }
+    }
+
+    //Ringer that ignores the node
+    private static class NullRinger implements RingerService {
+        public void registerNode( NodeService n ) {}
+        public void ready( long pid ) {}
+        public void report( Report report ) {}
+        public void leaderLost( long pid, int epoch, long leaderPid, long silentMillis ) {}
+        public void elected( long pid, int epoch ) {}
+        public Leadership leader() { return null; }
+    }
+
+    //psvm()
+    public static void main( String[] args ) throws Exception {
+        if( args.length >= 1 )
+            filter = args[0];
+        if( args.length >= 2 )
+            iterations = Integer.parseInt( args[1] );
+        if( args.length >= 3 )
+            iterationMillis = Long.parseLong( args[2] );
+
+        System.setProperty( Outbox.CAPACITY_PROPERTY, "0" ); //Sends straight into the sinks
+
+        final Sink sink = new Sink();
+        final Node node = Node.newLocalInstance( new NullRinger(), new RmiTransport() );
+        node.wire( new Wiring( sink, sink, 0, 3 ) );
+        final long pid = node.pid();
+
+        final Probe probe = new Probe( pid, MessageType.ELECTION, 0 );
+
+        console.printf( "%-36s %14s %12s%n", "Benchmark", "ns/op", "+/-" );
+
+        bench( new Op( "processProbe.election.forward" ) {
+            void run() throws RemoteException {
+                reset( probe, pid + 1, MessageType.ELECTION, 10, 0 );
+                node.processProbe( probe );
+            }
+        });
+        bench( new Op( "processProbe.election.reply" ) {
+            void run() throws RemoteException {
+                reset( probe, pid + 1, MessageType.ELECTION, 3, 7 );
+                node.processProbe( probe );
+            }
+        });
+        bench( new Op( "processProbe.election.swallow" ) {
+            void run() throws RemoteException {
+                reset( probe, pid - 1, MessageType.ELECTION, 3, 0 );
+                node.processProbe( probe );
+            }
+        });
+        bench( new Op( "processProbe.reply.forward" ) {
+            void run() throws RemoteException {
+                reset( probe, pid + 1, MessageType.REPLY, 3, 0 );
+                node.processProbe( probe );
+            }
+        });
+        bench( new Op( "processProbe.announcement" ) {
+            void run() throws RemoteException {
+                node.forgetLeader(); //Else only the first one is taken, the rest are dropped
+                reset( probe, pid + 1, MessageType.ANNOUNCEMENT, Integer.MAX_VALUE, 0 ); //Forwarded
+                node.processProbe( probe );
+            }
+        });
+
+        final ByteBuffer buffer = ByteBuffer.allocate( Probe.SIZE );
+        bench( new Op( "probe.buffer.roundtrip" ) {
+            void run() {
+                buffer.clear();
+                probe.write( buffer );
+                buffer.flip();
+                blackhole += Probe.read( buffer ).id;
+            }
+        });
+        bench( new Op( "probe.serialization.roundtrip" ) {
+            void run() throws IOException, ClassNotFoundException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream( 256 );
+                ObjectOutputStream out = new ObjectOutputStream( bytes );
+                out.writeObject( probe );
+                out.close();
+                ObjectInputStream in = new ObjectInputStream(
+                        new ByteArrayInputStream( bytes.toByteArray() ) );
+                blackhole += ( (Probe)in.readObject() ).id;
+            }
+        });
+
+        final Logger.Level level = Logger.level();
+        Logger.setLevel( Logger.Level.INFO );
+        bench( new Op( "logger.debug.disabled" ) {
+            void run() {
+                if( Logger.isDebugEnabled() )
+                    Logger.debug( "I am processing probe(%x) now", node, probe.id );
+            }
+        });
+        Logger.setLevel( Logger.Level.DEBUG );
+        bench( new Op( "logger.debug.enabled" ) {
+            void run() {
+                if( Logger.isDebugEnabled() )
+                    Logger.debug( "I am processing probe(%x) now", node, probe.id );
+            }
+        });
+        Logger.setLevel( level );
+        bench( new Op( "logger.info" ) {
+            void run() {
+                Logger.info( "Reporting to Ringer", node );
+            }
+        });
+
+        final Mailbox mailbox = new Mailbox();
+        bench( new Op( "mailbox.offer+poll" ) {
+            void run() {
+                mailbox.offer( probe );
+                blackhole += mailbox.poll().hops;
+            }
+        });
+        bench( new Op( "mailbox.offer+poll.burst16" ) {
+            void run() {
+                for( int i = 0; i < 16; i++ )
+                    mailbox.offer( probe );
+                for( int i = 0; i < 16; i++ )
+                    blackhole += mailbox.poll().hops;
+            }
+        });
+
+        final Histogram histogram = new Histogram();
+        bench( new Op( "histogram.record" ) {
+            void run() {
+                histogram.record( blackhole & 0xFFFFF );
+            }
+        });
+
+        final LeaderCache leaders = new LeaderCache( new LeaderService() {
+            public Leadership leader() {
+                return new Leadership( pid, 0, node, 60000 );
+            }
+        });
+        bench( new Op( "leaderCache.leader" ) {
+            void run() throws RemoteException {
+                blackhole += leaders.leader().epoch;
+            }
+        });
+
+        final Report[] reports = new Report[1000];
+        for( int i = 0; i < reports.length; i++ ) {
+            reports[i] = new Report( "Node-" + i );
+            for( int j = 0; j < i % 50; j++ ) {
+                reports[i].msg();
+                reports[i].rcv();
+            }
+        }
+        bench( new Op( "reportSet.add+summary.1000" ) {
+            void run() {
+                ReportSet set = new ReportSet( "Bench", reports.length );
+                for( Report r : reports )
+                    set.add( r );
+                blackhole += set.summary().length();
+            }
+        });
+
+        console.println( "(sink received " + sink.received + " probes)" );
+        System.exit( 0 );
+    }
+
+    //Putting the probe back in a known state before each operation
+    private static void reset( Probe p, long src, MessageType type, int phase, int hops ) {
+        p.src_pid = src;
+        p.type = type;
+        p.phase = phase;
+        p.hops = hops;
+        p.direction = Direction.RIGHT;
+    }
+
+    //Warming up, then timing iterations of the operation
+    private static void bench( Op op ) throws Exception {
+        if( !op.name.contains( filter ) )
+            return;
+
+        System.setOut( discard );
+        double[] results = new double[iterations];
+        try {
+            for( int i = 0; i < iterations; i++ ) //Warm-up, same length as measurement
+                iterate( op );
+            for( int i = 0; i < iterations; i++ )
+                results[i] = iterate( op );
+        } finally {
+            Logger.flush(); //Background writer still owes lines to the discarded stream
+            System.setOut( console );
+        }
+
+        double mean = 0;
+        for( double r : results )
+            mean += r;
+        mean /= results.length;
+
+        double variance = 0;
+        for( double r : results )
+            variance += ( r - mean ) * ( r - mean );
+        double stdev = Math.sqrt( variance / Math.max( 1, results.length - 1 ) );
+
+        console.printf( "%-36s %14.1f %12.1f%n", op.name, mean, stdev );
+    }
+
+    //Running the operation for one iteration, returns ns/op
+    private static double iterate( Op op ) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long deadline = start + iterationMillis * 1000000L;
+        long now;
+        do {
+            for( int i = 0; i < 64; i++ ) //Amortizing the clock read
+                op.run();
+            ops += 64;
+        } while( (now = System.nanoTime()) < deadline );
+        return (double)( now - start ) / ops;
+    }
+}
@@ -0,0 +1,46 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+
+/**
+ * Chang-Roberts (LCR): every node sends its pid to the right; a node
+ * forwards greater pids and swallows smaller ones, and the pid that makes
+ * it back to its source wins. O(n^2) messages in the worst case, O(n log n)
+ * on average, with only n hops of latency.
+ */
+public class ChangRoberts implements Election {
+
+    private int received = 0; //Election probes seen
+
+    @Override
+    public void start( Node node ) throws RemoteException {
+        node.probe( MessageType.ELECTION, Direction.RIGHT );
+    }
+
+    @Override
+    public void process( Node node, Probe probe ) throws RemoteException {
+        if( probe.type != MessageType.ELECTION )
+            return;
+
+        received++;
+
+        if( probe.src_pid > node.pid() )
+            node.forward( probe );
+        else if( probe.src_pid == node.pid() ) //Went all the way around
+            node.elected();
+        else if( Logger.isDebugEnabled() ) //Swallowed, not boxing ids unless logged
+            Logger.debug( "Swallowed probe(%x) because I'm a "
+                    + "greater node than Node-%x", node, probe.id, probe.src_pid );
+    }
+
+    @Override
+    public int phase() {
+        return 0; //Single round
+    }
+
+    @Override
+    public int replies() {
+        return received;
+    }
+}
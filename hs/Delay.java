@@ -0,0 +1,119 @@
+
+package hs;
+
+import java.util.SplittableRandom;
+
+/**
+ * Link delay distribution, in microseconds: of virtual time in the
+ * {@link Simulator}, of real time in a {@link FaultyTransport}. Set with
+ * -Dhs.sim.delay (or -Dhs.fault.delay) as one of
+ *
+ *   constant:<us>              every hop takes the same time (the default, 100)
+ *   uniform:<min>:<max>        evenly spread between the two
+ *   exponential:<mean>         memoryless, mostly short with a long tail
+ *   pareto:<min>:<alpha>       heavy tail, the smaller alpha the heavier
+ *
+ * Delays are drawn from the caller's random source only, so a simulated
+ * run is reproduced exactly from its seed.
+ */
+public abstract class Delay {
+
+    public static final String PROPERTY = "hs.sim.delay";
+
+    private final String spec;
+
+    private Delay( String spec ) {
+        this.spec = spec;
+    }
+
+    //Delay of one hop
+    public abstract long next( SplittableRandom random );
+
+    //Mean delay, infinite when the distribution has none
+    public abstract double mean();
+
+    public static Delay constant( final long us ) {
+        return new Delay( "constant:" + us ) {
+            public long next( SplittableRandom random ) {
+                return us;
+            }
+            public double mean() {
+                return us;
+            }
+        };
+    }
+
+    public static Delay uniform( final long min, final long max ) {
+        if( max < min )
+            throw new IllegalArgumentException( "Uniform delay needs min <= max" );
+        return new Delay( "uniform:" + min + ":" + max ) {
+            public long next( SplittableRandom random ) {
+                return min + random.nextLong( max - min + 1 );
+            }
+            public double mean() {
+                return ( min + max ) / 2.0;
+            }
+        };
+    }
+
+    public static Delay exponential( final double mean ) {
+        return new Delay( "exponential:" + mean ) {
+            public long next( SplittableRandom random ) {
+                return Math.round( -mean * Math.log( 1.0 - random.nextDouble() ) );
+            }
+            public double mean() {
+                return mean;
+            }
+        };
+    }
+
+    public static Delay pareto( final long min, final double alpha ) {
+        if( alpha <= 0 )
+            throw new IllegalArgumentException( "Pareto delay needs alpha > 0" );
+        return new Delay( "pareto:" + min + ":" + alpha ) {
+            public long next( SplittableRandom random ) {
+                double d = min / Math.pow( 1.0 - random.nextDouble(), 1.0 / alpha );
+                return d >= Long.MAX_VALUE / 4 ? Long.MAX_VALUE / 4 : Math.round( d );
+            }
+            public double mean() {
+                return alpha > 1 ? alpha * min / ( alpha - 1 ) : Double.POSITIVE_INFINITY;
+            }
+        };
+    }
+
+    //Delay described by the spec, see above
+    public static Delay parse( String spec ) {
+        String[] parts = spec.trim().split( ":" );
+        String name = parts[0].toLowerCase();
+        try {
+            if( name.equals( "constant" ) && parts.length == 2 )
+                return constant( Long.parseLong( parts[1] ) );
+            if( name.equals( "uniform" ) && parts.length == 3 )
+                return uniform( Long.parseLong( parts[1] ), Long.parseLong( parts[2] ) );
+            if( name.equals( "exponential" ) && parts.length == 2 )
+                return exponential( Double.parseDouble( parts[1] ) );
+            if( name.equals( "pareto" ) && parts.length == 3 )
+                return pareto( Long.parseLong( parts[1] ), Double.parseDouble( parts[2] ) );
+        } catch( NumberFormatException nfe ) {
+        }
+        throw new IllegalArgumentException( "Unknown link delay " + spec );
+    }
+
+    //Delay configured for this JVM, 100 us constant by default
+    public static Delay configured() {
+        String spec = System.getProperty( PROPERTY );
+        if( spec == null || spec.isEmpty() )
+            return constant( 100 );
+        try {
+            return parse( spec );
+        } catch( IllegalArgumentException iae ) {
+            Logger.warn( iae.getMessage() + ", using constant:100", null );
+            return constant( 100 );
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,28 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+
+/**
+ * A leader election algorithm run by a Node.
+ *
+ * One instance is created per node and holds that node's election state.
+ * The node calls start() when it joins the election (activated, or on its
+ * first probe) and hands every ELECTION and REPLY probe to process();
+ * ANNOUNCEMENT probes are handled by the node itself once an algorithm
+ * calls {@link Node#elected()}.
+ */
+public interface Election {
+
+    //Joining the election
+    public void start( Node node ) throws RemoteException;
+
+    //Processing an ELECTION or REPLY probe
+    public void process( Node node, Probe probe ) throws RemoteException;
+
+    //Current phase (or round) of this node
+    public int phase();
+
+    //Replies (or messages) gathered so far in the current phase
+    public int replies();
+}
@@ -0,0 +1,346 @@
+
+package hs;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport that injects network faults into the links of another one,
+ * so that a clean localhost (or a LocalCluster) behaves like a real
+ * network. Every fault is off unless set:
+ *
+ *   -Dhs.fault.delay=<delay>            latency of each probe, in microseconds,
+ *                                       as a {@link Delay} (constant:500, uniform:100:900,
+ *                                       exponential:500, pareto:200:1.5)
+ *   -Dhs.fault.drop=<p>                 chance of losing each probe
+ *   -Dhs.fault.reorder=<p>              chance of holding a probe back by another
+ *                                       delay, letting the ones behind it overtake
+ *   -Dhs.fault.partition=<f>:<ms>       fraction of links cut for the first ms
+ *                                       milliseconds after they are opened
+ *   -Dhs.fault.retransmit=<ms>          time until a lost probe is sent again (200);
+ *                                       0 loses it for good, which stalls the election
+ *
+ * Reordering, and losing probes (dropped or cut off by a partition) to
+ * send them again later, let probes overtake each other on a link. Links
+ * stay FIFO otherwise, as TCP is. Peterson and Franklin rely on FIFO links,
+ * so with them only the delay is injected, the other faults are refused
+ * with a warning. Delayed probes are delivered by
+ * one timer thread per JVM, in the order of their delivery times; a link
+ * closed meanwhile still delivers them before closing, and nodes wait for
+ * them to leave (see {@link #flush()}) before they report. Lost probes are
+ * counted, and nodes put the count in their reports.
+ */
+public class FaultyTransport implements Transport, Loggable {
+
+    public static final String DELAY_PROPERTY = "hs.fault.delay";
+    public static final String DROP_PROPERTY = "hs.fault.drop";
+    public static final String REORDER_PROPERTY = "hs.fault.reorder";
+    public static final String PARTITION_PROPERTY = "hs.fault.partition";
+    public static final String RETRANSMIT_PROPERTY = "hs.fault.retransmit";
+
+    private static ScheduledExecutorService timer; //Delivers delayed probes, created on first use
+    private static boolean refused = false; //Warned of faults the algorithm cannot take
+
+    //Source of the warnings about the configuration, before there is a transport
+    private static final Loggable CONFIGURATION = new Loggable() {
+        @Override
+        public String logIdent() {
+            return "FaultyTransport";
+        }
+    };
+
+    private final Transport inner;
+    private final Delay delay; //null for none
+    private final double drop;
+    private final double reorder;
+    private final double partitioned; //Fraction of links cut
+    private final long partitionNanos; //For how long
+    private final long retransmitNanos; //0 to lose probes for good
+
+    private final AtomicLong dropped = new AtomicLong(); //Probes lost, not yet reported
+    private final AtomicInteger inFlight = new AtomicInteger(); //Probes on the timer, to be sent (again)
+
+    private static final long FLUSH_MILLIS = 10000; //Longest flush() waits for them
+
+    public FaultyTransport( Transport inner, Delay delay, double drop, double reorder,
+            double partitioned, long partitionMillis, long retransmitMillis ) {
+        this.inner = inner;
+        this.delay = delay;
+        this.drop = drop;
+        this.reorder = reorder;
+        this.partitioned = partitioned;
+        partitionNanos = TimeUnit.MILLISECONDS.toNanos( partitionMillis );
+        retransmitNanos = TimeUnit.MILLISECONDS.toNanos( retransmitMillis );
+    }
+
+    //The transport with the configured faults, or as it is if none are
+    public static Transport configured( Transport inner ) {
+        String delay = System.getProperty( DELAY_PROPERTY );
+        String partition = System.getProperty( PARTITION_PROPERTY );
+        double drop = probability( DROP_PROPERTY );
+        double reorder = probability( REORDER_PROPERTY );
+
+        Algorithm algorithm = Algorithm.configured();
+        if( algorithm.fifo() && ( partition != null || drop > 0 || reorder > 0 ) ) {
+            synchronized( FaultyTransport.class ) { //Once, not for every node of a LocalCluster
+                if( !refused )
+                    Logger.warn( "%s relies on FIFO links, ignoring -Dhs.fault.drop, "
+                            + "-Dhs.fault.reorder and -Dhs.fault.partition", CONFIGURATION, algorithm );
+                refused = true;
+            }
+            partition = null;
+            drop = 0;
+            reorder = 0;
+        }
+
+        if( delay == null && partition == null && drop == 0 && reorder == 0 )
+            return inner;
+
+        double partitioned = 0;
+        long partitionMillis = 0;
+        if( partition != null ) {
+            try {
+                String[] parts = partition.split( ":" );
+                partitioned = Double.parseDouble( parts[0] );
+                partitionMillis = Long.parseLong( parts[1] );
+            } catch( RuntimeException re ) {
+                Logger.warn( "Ignoring -D%s=%s, expected <fraction>:<ms>", CONFIGURATION,
+                        PARTITION_PROPERTY, partition );
+            }
+        }
+
+        return new FaultyTransport( inner, delay != null ? Delay.parse( delay ) : null,
+                drop, reorder, partitioned, partitionMillis,
+                Long.getLong( RETRANSMIT_PROPERTY, 200 ) );
+    }
+
+    private static double probability( String property ) {
+        String p = System.getProperty( property );
+        return p == null ? 0 : Math.max( 0, Math.min( 1, Double.parseDouble( p ) ) );
+    }
+
+    //Timer thread shared by every faulty link of this JVM
+    private static synchronized ScheduledExecutorService timer() {
+        if( timer == null ) {
+            ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor( 1, new ThreadFactory() {
+                @Override
+                public Thread newThread( Runnable r ) {
+                    Thread thread = Threads.platform( r, "FaultyTransport-timer" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            });
+            t.setRemoveOnCancelPolicy( true );
+            timer = t;
+        }
+        return timer;
+    }
+
+    //Waiting until the probes delayed or to be sent again have left, as a node must before it exits
+    public void flush() {
+        long deadline = System.currentTimeMillis() + FLUSH_MILLIS;
+        while( inFlight.get() > 0 ) {
+            if( System.currentTimeMillis() > deadline ) {
+                Logger.warn( "Gave up waiting for %d delayed or lost probes", this, inFlight.get() );
+                return;
+            }
+            try {
+                Thread.sleep( 1 );
+            } catch( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    //Probes lost since the last call
+    public long takeDropped() {
+        return dropped.getAndSet( 0 );
+    }
+
+    @Override
+    public void bind( NodeService local ) throws IOException {
+        inner.bind( local );
+    }
+
+    @Override
+    public String endpoint() {
+        return inner.endpoint();
+    }
+
+    @Override
+    public Link connect( NodeService n ) throws RemoteException {
+        return new FaultyLink( inner.connect( n ) );
+    }
+
+    @Override
+    public void close() {
+        inner.close();
+    }
+
+    @Override
+    public String logIdent() {
+        return "FaultyTransport";
+    }
+
+    @Override
+    public String toString() {
+        return String.format( "%s (delay %s us, drop %.3f, reorder %.3f, partition %.3f "
+                + "for %d ms)", inner, delay != null ? delay : "none", drop, reorder,
+                partitioned, TimeUnit.NANOSECONDS.toMillis( partitionNanos ) );
+    }
+
+    //A link that loses, delays and reorders what it is given
+    private final class FaultyLink implements Link {
+
+        private final Link target;
+        private final long healed; //System.nanoTime() the link's partition ends, if cut
+        private final boolean cut;
+        private final SplittableRandom random = new SplittableRandom(); //Guarded by this
+        private long last; //Latest in-order delivery time, guarded by this
+        private final ArrayDeque<Probe> inOrder = new ArrayDeque<Probe>(); //Due in this order, guarded by this
+        private int scheduled = 0; //Probes on the timer for this link, guarded by this
+        private boolean open = true; //Guarded by this
+        private volatile boolean failed = false; //Logged a failed delivery already
+
+        FaultyLink( Link target ) {
+            this.target = target;
+            cut = partitioned > 0 && ThreadLocalRandom.current().nextDouble() < partitioned;
+            healed = System.nanoTime() + partitionNanos;
+        }
+
+        @Override
+        public void send( Probe probe ) throws RemoteException {
+            transmit( probe );
+        }
+
+        @Override
+        public void send( Probe[] probes, int count ) throws RemoteException {
+            for( int i = 0; i < count; i++ ) //Each probe meets its own faults
+                transmit( probes[i] );
+        }
+
+        private void transmit( Probe probe ) throws RemoteException {
+            synchronized( this ) {
+                if( !open )
+                    return;
+            }
+            fault( probe );
+        }
+
+        //Losing, delaying or passing on a probe, sent or sent again
+        private void fault( final Probe probe ) throws RemoteException {
+            long now = System.nanoTime();
+            long at;
+            boolean heldBack = false;
+            synchronized( this ) {
+                if( ( cut && now - healed < 0 ) || ( drop > 0 && random.nextDouble() < drop ) ) {
+                    dropped.incrementAndGet();
+                    if( retransmitNanos > 0 ) //Sent again, behind what was sent meanwhile
+                        schedule( new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    fault( probe );
+                                } catch( RemoteException re ) {
+                                    failed( re );
+                                }
+                            }
+                        }, retransmitNanos );
+                    return;
+                }
+
+                at = now + ( delay != null ? TimeUnit.MICROSECONDS.toNanos( delay.next( random ) ) : 0 );
+                if( reorder > 0 && random.nextDouble() < reorder ) { //Held back, the rest may pass
+                    heldBack = true;
+                    if( delay != null )
+                        at += TimeUnit.MICROSECONDS.toNanos( delay.next( random ) );
+                } else if( delay != null ) {
+                    at = Math.max( at, last );
+                    last = at;
+                    inOrder.add( probe );
+                }
+            }
+
+            if( delay == null && !heldBack ) { //Nothing to wait for
+                target.send( probe );
+                return;
+            }
+            
+            //Timers may fire a hair out of order, so in-order tasks send the oldest probe due
+            final Probe own = heldBack ? probe : null;
+            schedule( new Runnable() {
+                @Override
+                public void run() {
+                    Probe next = own;
+                    if( next == null )
+                        synchronized( FaultyLink.this ) {
+                            next = inOrder.poll();
+                        }
+                    if( next == null )
+                        return;
+                    try {
+                        target.send( next );
+                    } catch( RemoteException re ) {
+                        failed( re );
+                    }
+                }
+            }, Math.max( 0, at - now ) );
+        }
+
+        //Running a task on the timer, counted in flight until it is done
+        private void schedule( final Runnable task, long nanos ) {
+            synchronized( this ) {
+                scheduled++;
+            }
+            inFlight.incrementAndGet();
+            timer().schedule( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally { //A retransmit scheduling another has counted it already
+                        boolean last;
+                        synchronized( FaultyLink.this ) {
+                            last = --scheduled == 0 && !open;
+                        }
+                        if( last ) //Closed meanwhile, its last probe is out
+                            target.close();
+                        inFlight.decrementAndGet();
+                    }
+                }
+            }, nanos, TimeUnit.NANOSECONDS );
+        }
+
+        private void failed( RemoteException re ) {
+            if( failed )
+                return;
+            failed = true;
+            Logger.error( "Failed to deliver a delayed probe, dropping it: " + re,
+                    FaultyTransport.this );
+        }
+
+        //Taking no more probes, closing the link once those on the timer are delivered
+        @Override
+        public void close() {
+            boolean idle;
+            synchronized( this ) {
+                if( !open )
+                    return;
+                open = false;
+                idle = scheduled == 0;
+            }
+            if( idle )
+                target.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+
+/**
+ * Franklin: bidirectional O(n log n) in rounds.
+ *
+ * In every round an active node sends its pid both ways and waits for the
+ * pids of its nearest active neighbour on each side. It stays active only
+ * if its pid beats both, otherwise it becomes a relay. At least half of the
+ * active nodes drop out per round; a node whose own pid comes back is the
+ * last one active. Probes from a neighbour that is already a round ahead
+ * are held back per side, relying on FIFO links.
+ */
+public class Franklin implements Election {
+
+    private boolean active = true;
+    private int phase = 0;
+
+    private final ArrayDeque<Probe> fromLeft = new ArrayDeque<Probe>(); //Travelling right
+    private final ArrayDeque<Probe> fromRight = new ArrayDeque<Probe>(); //Travelling left
+
+    @Override
+    public void start( Node node ) throws RemoteException {
+        node.probe( MessageType.ELECTION, Direction.BOTH );
+    }
+
+    @Override
+    public void process( Node node, Probe probe ) throws RemoteException {
+        if( probe.type != MessageType.ELECTION )
+            return;
+
+        if( !active ) { //Relay
+            node.forward( probe );
+            return;
+        }
+
+        if( probe.src_pid == node.pid() ) { //My pid went all the way around
+            node.elected();
+            return;
+        }
+
+        if( probe.direction == Direction.RIGHT )
+            fromLeft.add( probe );
+        else
+            fromRight.add( probe );
+
+        while( active && !fromLeft.isEmpty() && !fromRight.isEmpty() ) {
+            long left = fromLeft.poll().src_pid;
+            long right = fromRight.poll().src_pid;
+
+            if( node.pid() > left && node.pid() > right ) { //Survived the round
+                phase++;
+                Logger.debug( "Entering round %d", node, phase );
+                node.probe( MessageType.ELECTION, Direction.BOTH );
+            } else {
+                active = false;
+                Logger.debug( "Becoming a relay in round %d", node, phase );
+            }
+        }
+
+        if( !active ) { //Passing on whatever arrived early from the next round
+            while( !fromLeft.isEmpty() )
+                node.forward( fromLeft.poll() );
+            while( !fromRight.isEmpty() )
+                node.forward( fromRight.poll() );
+        }
+    }
+
+    @Override
+    public int phase() {
+        return phase;
+    }
+
+    @Override
+    public int replies() {
+        return fromLeft.size() + fromRight.size();
+    }
+}
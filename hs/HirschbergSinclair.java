@@ -0,0 +1,132 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+
+/**
+ * Hirschberg-Sinclair: in phase k a node probes 2^k hops both ways and goes
+ * on to the next phase once both probes come back as replies. A probe that
+ * travels all around the ring back to its source elects it. O(n log n)
+ * messages.
+ *
+ * What a node does with an ELECTION probe is decided by decide(), which
+ * the {@link Simulator} shares.
+ */
+public class HirschbergSinclair implements Election {
+
+    //What a node does with an ELECTION probe
+    enum Decision {
+        FORWARD, //Greater source, still within reach
+        REPLY, //Greater source, at the end of its reach
+        ELECTED, //Own probe, all the way around the ring
+        SWALLOW //Smaller source
+    }
+
+    private int phase = 0;
+    private int replies = 0;
+
+    @Override
+    public void start( Node node ) throws RemoteException {
+        node.probe( MessageType.ELECTION, Direction.BOTH ); //Probe Election on both sides
+    }
+
+    @Override
+    public void process( Node node, Probe probe ) throws RemoteException {
+        long pid = node.pid();
+        boolean debug = Logger.isDebugEnabled(); //Not boxing ids when debug is off
+
+        switch( probe.type ) {
+            case ELECTION: //Election probe
+                if( debug )
+                    Logger.debug( "It's an Election probe "
+                            + "originally from Node-%x", node, probe.src_pid );
+                switch( decide( pid, probe.src_pid, probe.phase, probe.hops ) ) {
+                    case FORWARD: //Hops < Max #Hops
+                        if( debug )
+                            Logger.debug( String.format( "Probe max hops (2^%d): "
+                                    + "%d, it's at %d hops so far...forwarding to "
+                                    + "the %s", probe.phase, reach( probe.phase ), 
+                                    probe.hops, probe.direction ), node );
+                        node.forward( probe );
+                    break;
+                    
+                    case REPLY: //Hops reached max #hops
+                        if( debug )
+                            Logger.debug( "Probe(%x) has reached "
+                                    + "it's max hops(%d), sending a reply "
+                                    + "back", node, probe.id, probe.hops );
+                        node.reply( probe ); //Send a reply
+                    break;
+                    
+                    case ELECTED: //Finished a complete circle of probe
+                        node.elected();
+                    break;
+                    
+                    case SWALLOW: //src pid < cuurent pid
+                        if( debug )
+                            Logger.debug( "Swallowed probe(%x) "
+                                + "because I'm a greater node than Node-%x", 
+                                node, probe.id, probe.src_pid );
+                    break;
+                }
+            break;
+                
+            case REPLY: //Reply Probe
+                if( debug )
+                    Logger.debug( "It's an Reply probe for "
+                            + "Node-%x", node, probe.src_pid );
+                if( probe.src_pid != pid ) { //If it is not the reply for me, forward it
+                    
+                    node.forward( probe );
+                   
+                    
+                } else { //If the reply is for me, increment reply count
+                    replies++;
+                    if( replies >= 2 ) { //I got at least 2 replies, Entering next phase
+                        phase++;
+                        
+                        Logger.debug( "I am entering phase %d", node, phase );
+                        
+                        node.probe( MessageType.ELECTION, Direction.BOTH ); //Probe Election on both sides
+                        
+                        replies = 0; //Resetting reply count to zero
+                    }
+                }
+                
+            break;
+
+            default:
+            break;
+        }
+    }
+
+    //Deciding on an ELECTION probe from src in the given phase, hops counting this one
+    static Decision decide( long pid, long src, int phase, int hops ) {
+        if( src == pid )
+            return Decision.ELECTED;
+        if( src < pid )
+            return Decision.SWALLOW;
+        
+        long reach = reach( phase );
+        if( hops < reach )
+            return Decision.FORWARD;
+        if( hops == reach )
+            return Decision.REPLY;
+        return Decision.SWALLOW; //Beyond its reach, never sent that far
+    }
+    
+    //Hops a probe of the phase goes each way: 2^phase
+    static long reach( int phase ) {
+        return 1L << Math.min( phase, 62 );
+    }
+
+    @Override
+    public int phase() {
+        return phase;
+    }
+
+    @Override
+    public int replies() {
+        return replies;
+    }
+}
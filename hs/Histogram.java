@@ -0,0 +1,155 @@
+
+package hs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in the style of HdrHistogram: log-linear buckets with
+ * 16 sub-buckets per power of two, so any recorded value is reported within
+ * about 6% of itself from a fixed array of counters, whatever its range.
+ *
+ * Recording is lock-free and safe from any thread. Histograms merge by
+ * adding counters, and only non-empty buckets are serialized.
+ */
+public class Histogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS; //Sub-buckets per power of two
+    private static final int BUCKETS = ( 64 - SUB_BITS ) * SUB_COUNT + SUB_COUNT;
+
+    private transient AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+    private transient AtomicLong total = new AtomicLong();
+    private transient AtomicLong sum = new AtomicLong();
+    private transient AtomicLong max = new AtomicLong();
+
+    //Bucket holding the value
+    private static int index( long value ) {
+        if( value < 2 * SUB_COUNT )
+            return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros( value ) - SUB_BITS;
+        return ( shift + 1 ) * SUB_COUNT + (int)( ( value >>> shift ) - SUB_COUNT );
+    }
+
+    //Largest value falling in the bucket
+    private static long highest( int index ) {
+        if( index < 2 * SUB_COUNT )
+            return index;
+        int shift = index / SUB_COUNT - 1;
+        long mantissa = index % SUB_COUNT + SUB_COUNT;
+        return ( ( mantissa + 1 ) << shift ) - 1;
+    }
+
+    //Recording one value, negative values are dropped
+    public void record( long value ) {
+        if( value < 0 )
+            return;
+        counts.incrementAndGet( index( value ) );
+        total.incrementAndGet();
+        sum.addAndGet( value );
+        long m;
+        while( value > (m = max.get()) && !max.compareAndSet( m, value ) );
+    }
+
+    //Adding the other histogram's values to this one
+    public void add( Histogram other ) {
+        if( other.total.get() == 0 )
+            return;
+        for( int i = 0; i < BUCKETS; i++ ) {
+            long c = other.counts.get( i );
+            if( c != 0 )
+                counts.addAndGet( i, c );
+        }
+        total.addAndGet( other.total.get() );
+        sum.addAndGet( other.sum.get() );
+        long value = other.max.get(), m;
+        while( value > (m = max.get()) && !max.compareAndSet( m, value ) );
+    }
+
+    public void reset() {
+        for( int i = 0; i < BUCKETS; i++ )
+            counts.set( i, 0 );
+        total.set( 0 );
+        sum.set( 0 );
+        max.set( 0 );
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = total.get();
+        return n == 0 ? 0.0 : (double)sum.get() / n;
+    }
+
+    //Value at the given percentile (0-100), 0 when empty
+    public long percentile( double percentile ) {
+        long n = total.get();
+        if( n == 0 )
+            return 0;
+        long rank = Math.max( 1, (long)Math.ceil( percentile / 100.0 * n ) );
+        long seen = 0;
+        for( int i = 0; i < BUCKETS; i++ ) {
+            seen += counts.get( i );
+            if( seen >= rank )
+                return Math.min( highest( i ), max.get() );
+        }
+        return max.get();
+    }
+
+    //One line of percentiles, nanosecond values shown in microseconds
+    public String summary() {
+        return summary( 1000.0, "us" );
+    }
+
+    //One line of percentiles, values divided by the scale
+    public String summary( double scale, String unit ) {
+        return String.format( "n=%d mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f (%s)",
+                count(), mean() / scale, percentile( 50 ) / scale,
+                percentile( 99 ) / scale, percentile( 99.9 ) / scale, max() / scale, unit );
+    }
+
+    //Writing only the buckets that have values
+    private void writeObject( ObjectOutputStream out ) throws IOException {
+        out.defaultWriteObject();
+        int used = 0;
+        for( int i = 0; i < BUCKETS; i++ )
+            if( counts.get( i ) != 0 )
+                used++;
+        out.writeLong( total.get() );
+        out.writeLong( sum.get() );
+        out.writeLong( max.get() );
+        out.writeInt( used );
+        for( int i = 0; i < BUCKETS && used > 0; i++ ) {
+            long c = counts.get( i );
+            if( c != 0 ) {
+                out.writeShort( i );
+                out.writeLong( c );
+                used--;
+            }
+        }
+    }
+
+    private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        counts = new AtomicLongArray( BUCKETS );
+        total = new AtomicLong( in.readLong() );
+        sum = new AtomicLong( in.readLong() );
+        max = new AtomicLong( in.readLong() );
+        for( int used = in.readInt(); used > 0; used-- ) {
+            int i = in.readShort();
+            counts.set( i, in.readLong() );
+        }
+    }
+}
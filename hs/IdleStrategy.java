@@ -0,0 +1,78 @@
+
+package hs;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a consumer thread waits on an empty {@link Mailbox}.
+ *
+ * PARK suspends the thread straight away, YIELD gives up the cpu but never
+ * sleeps, and SPIN_THEN_PARK busy-waits and yields for a short while
+ * before parking so that back-to-back probes are picked up without a
+ * wake-up.
+ */
+public enum IdleStrategy {
+    PARK,
+    YIELD,
+    SPIN_THEN_PARK;
+
+    private static final int SPINS = 100; //Busy-wait rounds before yielding
+    private static final int YIELDS = 110; //Busy-wait + yield rounds before parking
+
+    //Idle strategy picked with -Dhs.idle=park|yield|spin
+    public static IdleStrategy configured() {
+        String name = System.getProperty( "hs.idle", "spin" ).trim();
+
+        if( name.equalsIgnoreCase( "park" ) )
+            return PARK;
+        if( name.equalsIgnoreCase( "yield" ) )
+            return YIELD;
+        return SPIN_THEN_PARK;
+    }
+
+    //Wait once. Returns true if the caller may be parked and needs a wake-up
+    boolean parks( int idleCount ) {
+        switch( this ) {
+            case PARK:
+                return true;
+            case YIELD:
+                return false;
+            case SPIN_THEN_PARK:
+            default:
+                return idleCount >= YIELDS;
+        }
+    }
+
+    //Back off without parking, called for idle rounds that don't park
+    void idle( int idleCount ) {
+        if( this == SPIN_THEN_PARK && idleCount < SPINS )
+            Thread.onSpinWait();
+        else
+            Thread.yield();
+    }
+
+    //Park until unparked by a producer (or a timeout of parkNanos if positive)
+    void park( long parkNanos ) {
+        if( parkNanos > 0 )
+            LockSupport.parkNanos( this, parkNanos );
+        else
+            LockSupport.park( this );
+    }
+
+    @Override
+    public String toString() {
+        String ret = super.toString();
+        switch( this ) {
+            case PARK:
+                ret = "Park";
+                break;
+            case YIELD:
+                ret = "Yield";
+                break;
+            case SPIN_THEN_PARK:
+                ret = "Spin-then-park";
+                break;
+        }
+        return ret;
+    }
+}
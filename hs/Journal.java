@@ -0,0 +1,211 @@
+
+package hs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node's trace of the probes it handles, in a memory-mapped file of
+ * fixed-size records, for {@link TraceAnalyzer} to read once the run is
+ * over. Tracing is off unless -Dhs.trace names a directory, where every
+ * node writes Node-<pid>.trace holding up to -Dhs.trace.records records
+ * (default 262144, at most MAX_RECORDS to keep the file under 2 GB; it
+ * is sparse, only what is written takes space).
+ *
+ * A record is RECORD_SIZE bytes: the time, the probe id, the peer (the
+ * node the probe came from, or for a send the one it goes to), the index of the record that caused this one
+ * in the same journal (-1 for none), the epoch, phase and hops, then one
+ * byte each for the event, the probe type and the direction. Hops are
+ * those the probe carried on the link, so a send and its receipt match on
+ * sender, receiver, id, hops and direction; following the causes back from a
+ * receipt gives the chain of probes that led to it.
+ *
+ * Times are wall-clock nanoseconds, taken as System.nanoTime() plus an
+ * offset read once, so journals of one host line up to within the
+ * clock's resolution; across hosts they are only as close as the clocks.
+ *
+ * Only the node thread appends. The header's count is updated after
+ * every record, so a journal stays readable when its node crashes.
+ */
+public class Journal implements Loggable {
+
+    public static final String PROPERTY = "hs.trace";
+    public static final String SUFFIX = ".trace";
+
+    private static final int CAPACITY = Integer.getInteger( "hs.trace.records", 1 << 18 );
+
+    private static final int MAGIC = 0x48534a31; //"HSJ1"
+    private static final int HEADER_SIZE = 32; //magic, record size, pid, count, capacity
+    public static final int RECORD_SIZE = 48;
+
+    private static final int COUNT_AT = 16;
+
+    //Most records a journal can hold, the mapping of a file being at most Integer.MAX_VALUE bytes
+    private static final int MAX_RECORDS = ( Integer.MAX_VALUE - HEADER_SIZE ) / RECORD_SIZE;
+
+    //What a record is about
+    public enum Event {
+        ACTIVATE, //Joined the election on its own, or told to by the Ringer: a root cause
+        JOIN, //Joined on a probe, carried by the record
+        RECEIVE, //Started processing a probe
+        SEND, //Handed a probe to a link
+        ELECTED //Won the election
+    }
+
+    private static final Event[] EVENTS = Event.values();
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final String file;
+    private final MappedByteBuffer buffer; //null once full or failed
+    private final int capacity;
+    private final long offset = wallClock() - System.nanoTime(); //Wall clock from nanoTime()
+    private int count = 0;
+
+    private Journal( String file, long pid, int capacity ) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try {
+            raf.setLength( 0 ); //A journal of an earlier run must not show through
+            buffer = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long)capacity * RECORD_SIZE );
+        } finally {
+            raf.close(); //The mapping outlives the channel
+        }
+        buffer.putInt( 0, MAGIC );
+        buffer.putInt( 4, RECORD_SIZE );
+        buffer.putLong( 8, pid );
+        buffer.putInt( COUNT_AT, 0 );
+        buffer.putInt( 20, capacity );
+    }
+
+    //The journal of the given node, null if tracing is off or the file cannot be made
+    public static Journal configured( long pid ) {
+        String dir = System.getProperty( PROPERTY );
+        if( dir == null || dir.isEmpty() )
+            return null;
+        File file = new File( dir, String.format( "Node-%x%s", pid, SUFFIX ) );
+        try {
+            new File( dir ).mkdirs();
+            return new Journal( file.getPath(), pid, Math.max( 1, Math.min( CAPACITY, MAX_RECORDS ) ) );
+        } catch( IOException ioe ) {
+            Logger.error( "Not tracing, cannot map " + file + ": " + ioe, null );
+        } catch( SecurityException se ) {
+            Logger.error( "Not tracing, cannot write " + file + ": " + se, null );
+        }
+        return null;
+    }
+
+    private static long wallClock() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1000000000L + now.getNano();
+    }
+
+    //Appending a record about a probe (null for none), returning its index or -1 once full
+    public int append( Event event, Probe probe, long peer, int cause, int epoch ) {
+        if( count >= capacity ) {
+            if( count++ == capacity ) //Counting on, to warn once
+                Logger.warn( "Trace journal full after %d records, no more tracing", this, capacity );
+            return -1;
+        }
+
+        int at = offset( count );
+        buffer.putLong( at, offset + System.nanoTime() );
+        buffer.putInt( at + 24, cause );
+        buffer.putInt( at + 28, epoch );
+        buffer.put( at + 40, (byte)event.ordinal() );
+        if( probe != null ) {
+            buffer.putLong( at + 8, probe.id );
+            buffer.putLong( at + 16, peer );
+            buffer.putInt( at + 32, probe.phase );
+            buffer.putInt( at + 36, probe.hops );
+            buffer.put( at + 41, (byte)( probe.type != null ? probe.type.ordinal() : -1 ) );
+            buffer.put( at + 42, (byte)( probe.direction != null ? probe.direction.ordinal() : -1 ) );
+        } else {
+            buffer.putLong( at + 8, 0 );
+            buffer.putLong( at + 16, peer );
+            buffer.putLong( at + 32, 0 ); //phase and hops
+            buffer.put( at + 41, (byte)-1 );
+            buffer.put( at + 42, (byte)-1 );
+        }
+        buffer.putInt( COUNT_AT, ++count );
+        return count - 1;
+    }
+
+    //Where the record at the given index starts, in the file and the mapping
+    private static int offset( int index ) {
+        return (int)( HEADER_SIZE + (long)index * RECORD_SIZE ); //Fits, the index is below MAX_RECORDS
+    }
+
+    //Writing what was traced out to the file
+    public void close() {
+        buffer.force();
+    }
+
+    @Override
+    public String logIdent() {
+        return "Journal " + file;
+    }
+
+    //One record read back
+    public static final class Record {
+        public final long node; //Pid of the journal's node
+        public final int index; //Position in the journal
+        public final long time;
+        public final long id;
+        public final long peer; //Sender of a probe received, receiver of one sent
+        public final int cause;
+        public final int epoch;
+        public final int phase;
+        public final int hops;
+        public final Event event;
+        public final MessageType type; //null without a probe
+        public final Direction direction;
+
+        private Record( long node, int index, ByteBuffer in, int at ) {
+            this.node = node;
+            this.index = index;
+            time = in.getLong( at );
+            id = in.getLong( at + 8 );
+            peer = in.getLong( at + 16 );
+            cause = in.getInt( at + 24 );
+            epoch = in.getInt( at + 28 );
+            phase = in.getInt( at + 32 );
+            hops = in.getInt( at + 36 );
+            event = EVENTS[in.get( at + 40 )];
+            byte t = in.get( at + 41 );
+            byte d = in.get( at + 42 );
+            type = t < 0 ? null : TYPES[t];
+            direction = d < 0 ? null : DIRECTIONS[d];
+        }
+    }
+
+    //Every record of a journal file, in the order they were written
+    public static List<Record> read( File file ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer in = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            if( in.limit() < HEADER_SIZE || in.getInt( 0 ) != MAGIC || in.getInt( 4 ) != RECORD_SIZE )
+                throw new IOException( file + " is not a trace journal" );
+            long pid = in.getLong( 8 );
+            int count = Math.min( in.getInt( COUNT_AT ), in.getInt( 20 ) );
+            count = Math.max( 0, Math.min( count, ( in.limit() - HEADER_SIZE ) / RECORD_SIZE ) ); //Cut short
+
+            List<Record> records = new ArrayList<Record>( count );
+            for( int i = 0; i < count; i++ )
+                records.add( new Record( pid, i, in, offset( i ) ) );
+            return records;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+
+package hs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.rmi.Naming;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a Ringer and n Node JVMs headlessly, for Linux (or any system
+ * without the Terminal windows run-hs opens on Mac OS X).
+ *
+ * Nodes are spawned by a pool of launcher threads so many JVMs start at
+ * once; nodes retry registration with exponential backoff when the Ringer
+ * is busy. Every hs.* system property given to the launcher is passed on to
+ * the Ringer and node JVMs. Output of each process goes to its own file in
+ * the log directory (-Dhs.launcher.logs, "none" discards it).
+ *
+ * Usage: java hs/Launcher <node-count> [parallelism]
+ */
+public class Launcher implements Loggable {
+
+    private static final String POLICY_FILE = "java-security.policy"; //Generated like run-hs does
+    private static final String POLICY_TEMPLATE = "java.policy.default";
+
+    private final int nodes;
+    private final int parallelism;
+
+    private final String java;
+    private final String classpath;
+    private final List<String> properties = new ArrayList<String>(); //-D options for children
+    private final File logs; //null discards output
+
+    private Process ringer;
+    private final List<Process> children = Collections.synchronizedList( new ArrayList<Process>() );
+
+    public Launcher( int nodes, int parallelism ) throws IOException {
+        this.nodes = nodes;
+        this.parallelism = parallelism;
+
+        java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+        classpath = System.getProperty( "java.class.path" );
+
+        properties.add( "-Djava.security.policy=" + policy() );
+        for( String name : System.getProperties().stringPropertyNames() )
+            if( name.startsWith( "hs." ) )
+                properties.add( "-D" + name + "=" + System.getProperty( name ) );
+
+        String dir = System.getProperty( "hs.launcher.logs", "logs" );
+        if( dir.equalsIgnoreCase( "none" ) ) {
+            logs = null;
+        } else {
+            logs = new File( dir );
+            logs.mkdirs();
+        }
+    }
+
+    //Security policy for the children, regenerated from the template so it stays current
+    private static String policy() throws IOException {
+        File policy = new File( POLICY_FILE );
+        File template = new File( POLICY_TEMPLATE );
+
+        if( template.exists() ) {
+            String text = new String( Files.readAllBytes( template.toPath() ), StandardCharsets.UTF_8 );
+            text = text.replace( "##CURRENT_WORKING_DIRECTORY##", new File( "" ).getAbsolutePath() );
+            Files.write( policy.toPath(), text.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        return policy.getPath();
+    }
+
+    //Starting a JVM running the given class
+    private Process spawn( String name, String main, String... args ) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add( java );
+        command.addAll( properties );
+        command.add( "-cp" );
+        command.add( classpath );
+        command.add( main );
+        Collections.addAll( command, args );
+
+        ProcessBuilder builder = new ProcessBuilder( command ).redirectErrorStream( true );
+        if( logs == null )
+            builder.redirectOutput( ProcessBuilder.Redirect.DISCARD );
+        else
+            builder.redirectOutput( new File( logs, name + ".log" ) );
+
+        return builder.start();
+    }
+
+    //Waiting for the Ringer to be bound in the registry
+    private void awaitRinger() throws Exception {
+        long wait = 50;
+        for( int attempt = 1; ; attempt++ ) {
+            try {
+                Naming.lookup( "Ringer" );
+                return;
+            } catch( Exception e ) {
+                if( !ringer.isAlive() )
+                    throw new IOException( "The Ringer exited with " + ringer.exitValue() );
+                if( attempt >= 20 )
+                    throw e;
+            }
+            Thread.sleep( wait );
+            wait = Math.min( 1000, wait * 2 );
+        }
+    }
+
+    //Starting everything and waiting for the Ringer to finish
+    public int run() throws Exception {
+        long start = System.nanoTime();
+
+        ringer = spawn( "ringer", "hs.Ringer", String.valueOf( nodes ) );
+        awaitRinger();
+        Logger.info( "Ringer is up, launching " + nodes + " nodes with parallelism "
+                + parallelism, this );
+
+        ExecutorService pool = Executors.newFixedThreadPool( parallelism );
+        for( int i = 1; i <= nodes; i++ ) {
+            final int index = i;
+            pool.execute( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        children.add( spawn( "node-" + index, "hs.Node" ) );
+                    } catch( IOException ioe ) {
+                        Logger.error( "Failed to launch node " + index + ": " + ioe,
+                                Launcher.this );
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination( 1, TimeUnit.HOURS );
+
+        Logger.info( "Launched %d nodes in %d ms", this, children.size(),
+                ( System.nanoTime() - start ) / 1000000 );
+
+        int status = ringer.waitFor();
+
+        for( Process p : children ) { //Nodes exit on their own once they have reported
+            if( !p.waitFor( 10, TimeUnit.SECONDS ) )
+                p.destroy();
+        }
+
+        Logger.info( "Run finished in %d ms, Ringer exited with %d", this,
+                ( System.nanoTime() - start ) / 1000000, status );
+        return status;
+    }
+
+    //Killing whatever is still running
+    private void destroy() {
+        if( ringer != null )
+            ringer.destroy();
+        synchronized( children ) {
+            for( Process p : children )
+                p.destroy();
+        }
+    }
+
+    @Override
+    public String logIdent() {
+        return "Launcher";
+    }
+
+    //psvm()
+    public static void main( String[] args ) {
+        if( args.length < 1 ) {
+            System.err.println( "Usage: java hs/Launcher <node-count> [parallelism]" );
+            System.exit( 1 );
+        }
+
+        int nodes = Integer.parseInt( args[0] );
+        int parallelism = args.length >= 2 ? Integer.parseInt( args[1] )
+                : Runtime.getRuntime().availableProcessors();
+
+        final Launcher launcher;
+        try {
+            launcher = new Launcher( nodes, parallelism );
+        } catch( IOException ioe ) {
+            Logger.error( "Failed to prepare the launch: " + ioe, null );
+            System.exit( 1 );
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+            @Override
+            public void run() {
+                launcher.destroy();
+            }
+        }));
+
+        try {
+            System.exit( launcher.run() );
+        } catch( Exception e ) {
+            Logger.error( "Launch failed: " + e, launcher );
+            System.exit( 1 );
+        }
+    }
+}
@@ -0,0 +1,79 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client-side copy of the answer of a {@link LeaderService}, kept until
+ * its lease runs out so that a client can look the leader up on every
+ * request: only the first lookup after expiry makes a remote call, and
+ * concurrent ones wait for it rather than asking too.
+ *
+ * The lease is counted from when the question was sent, so network delay
+ * shortens it rather than stretching it. A client that finds the leader
+ * gone should invalidate() the cache instead of waiting for the lease.
+ */
+public class LeaderCache implements Loggable {
+
+    //A cached answer and the System.nanoTime() it expires at
+    private static final class Entry {
+        final Leadership leadership;
+        final long expires;
+
+        Entry( Leadership leadership, long expires ) {
+            this.leadership = leadership;
+            this.expires = expires;
+        }
+    }
+
+    private final LeaderService source;
+    private volatile Entry entry; //null when nothing valid is cached
+    private volatile long lookups = 0; //Remote calls made, written under the lock
+
+    public LeaderCache( LeaderService source ) {
+        this.source = source;
+    }
+
+    //The leader, asking the source only when the cached answer expired
+    public Leadership leader() throws RemoteException {
+        Entry e = entry;
+        if( e != null && e.expires - System.nanoTime() > 0 )
+            return e.leadership;
+        return refresh();
+    }
+
+    //Asking the source, unless another thread just did
+    private synchronized Leadership refresh() throws RemoteException {
+        long asked = System.nanoTime();
+        Entry e = entry;
+        if( e != null && e.expires - asked > 0 )
+            return e.leadership;
+
+        Leadership leadership = source.leader();
+        lookups++;
+        if( leadership == null || leadership.lease <= 0 ) { //Nothing to hold on to
+            entry = null;
+            return leadership;
+        }
+        entry = new Entry( leadership, asked + TimeUnit.MILLISECONDS.toNanos( leadership.lease ) );
+        if( Logger.isDebugEnabled() )
+            Logger.debug( "Leader is %s", this, leadership );
+        return leadership;
+    }
+
+    //Dropping the cached answer, the next lookup asks the source
+    public void invalidate() {
+        entry = null;
+    }
+
+    //Remote calls made so far
+    public long lookups() {
+        return lookups;
+    }
+
+    @Override
+    public String logIdent() {
+        return "LeaderCache";
+    }
+}
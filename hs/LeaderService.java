@@ -0,0 +1,16 @@
+
+package hs;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Anything that can tell who leads the ring: the Ringer, and every node
+ * once the leader has been announced to it. Answering costs no remote
+ * calls on the answering side.
+ */
+public interface LeaderService extends Remote {
+
+    //The current leader, null when not known (yet)
+    public Leadership leader() throws RemoteException;
+}
@@ -0,0 +1,38 @@
+
+package hs;
+
+import java.io.Serializable;
+
+/**
+ * Answer to "who leads the ring": the leader's pid, the epoch it was
+ * elected in and for how long the answer may be relied on.
+ *
+ * The lease is a duration rather than a point in time, as the clocks of the
+ * asking and answering JVMs need not agree; the asker counts it from when
+ * it sent the question (see {@link LeaderCache}). A lease of 0 means an
+ * election is under way and the answer is only the last known leader.
+ */
+public class Leadership implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    //Milliseconds an answer may be cached when no heartbeats bound it, set with -Dhs.lease
+    public static final long LEASE = Long.getLong( "hs.lease", 1000 );
+
+    public final long pid; //Leader's pid
+    public final int epoch; //Election it won
+    public final NodeService leader; //The leader itself, null if the answering side has no reference
+    public final long lease; //Milliseconds the answer holds for
+
+    public Leadership( long pid, int epoch, NodeService leader, long lease ) {
+        this.pid = pid;
+        this.epoch = epoch;
+        this.leader = leader;
+        this.lease = Math.max( 0, lease );
+    }
+
+    @Override
+    public String toString() {
+        return String.format( "Node-%x (epoch %d, lease %d ms)", pid, epoch, lease );
+    }
+}
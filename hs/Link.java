@@ -0,0 +1,17 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+
+/**
+ * One direction of a connection to a neighbour, opened by a {@link Transport}.
+ */
+public interface Link {
+
+    public void send( Probe probe ) throws RemoteException;
+
+    //Sending the first count probes of the array in one go
+    public void send( Probe[] probes, int count ) throws RemoteException;
+
+    public void close();
+}
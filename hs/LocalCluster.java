@@ -0,0 +1,118 @@
+
+package hs;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+
+/**
+ * Runs a Ringer and a ring of in-memory Nodes inside one JVM.
+ *
+ * Nothing is exported through RMI: nodes are handed to each other as plain
+ * NodeService references and every node loop runs on a virtual thread when
+ * the JVM supports them. Without them each node runs on a platform thread
+ * and sends straight to its neighbours, without outbound queues and their
+ * sender threads. This is meant for capacity testing with ring sizes that
+ * would need far too many JVMs otherwise.
+ *
+ * Given a number of failovers, the cluster then crashes the leader that
+ * many times, each time waiting for the next one to be elected (this needs
+ * heartbeats, 100 ms apart unless -Dhs.heartbeat says otherwise).
+ *
+ * Usage: java hs/LocalCluster [size] [failovers]
+ */
+public class LocalCluster implements Loggable {
+
+    private final Ringer ringer;
+    private final Node[] nodes;
+
+    public LocalCluster( int size ) throws IOException {
+        ringer = new Ringer( size, false );
+        nodes = new Node[size];
+
+        for( int i = 0; i < size; i++ ) //Every node gets a transport of its own
+            nodes[i] = Node.newLocalInstance( ringer, Transport.configured() );
+    }
+
+    //Registering every node, the ringer activates one once the ring is full
+    public void start() throws Exception {
+        for( Node n : nodes )
+            ringer.registerNode( n );
+    }
+
+    //Waiting for every node to report back to the ringer
+    public ReportSet await() throws InterruptedException {
+        ringer.awaitReport();
+        return ringer.reportSet();
+    }
+
+    //Crashing the current leader, then waiting for the ring to elect another
+    public void failover() throws InterruptedException {
+        int epoch = ringer.epoch() + 1;
+        long pid = ringer.leaderPid();
+        for( Node n : nodes ) {
+            if( n.pid() == pid ) {
+                n.crash();
+                break;
+            }
+        }
+        if( !ringer.awaitLeader( epoch, 60000 ) )
+            Logger.error( "No leader elected for epoch " + epoch, this );
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    @Override
+    public String logIdent() {
+        return "LocalCluster";
+    }
+
+    //psvm()
+    public static void main( String[] args ) {
+        int size = 10; //Default ring size
+        int failovers = 0;
+
+        if( args.length >= 1 )
+            size = Integer.parseInt( args[0] );
+        if( args.length >= 2 )
+            failovers = Integer.parseInt( args[1] );
+        
+        if( failovers > 0 && System.getProperty( "hs.heartbeat" ) == null ) //Read by the Ringer
+            System.setProperty( "hs.heartbeat", "100" );
+
+        LocalCluster cluster;
+        try {
+            cluster = new LocalCluster( size );
+        } catch( IOException ioe ) {
+            Logger.error( "Could not start the nodes: " + ioe, null );
+            return;
+        }
+
+        Logger.info( "Starting %d in-memory nodes on %s threads", cluster, size, Threads.virtualAvailable() ? "virtual" : "platform" );
+
+        try {
+            long start = System.nanoTime();
+
+            cluster.start();
+            cluster.await();
+
+            Logger.info( "Elections over %d nodes finished in %d ms", cluster, size, 
+                    ( System.nanoTime() - start ) / 1000000 );
+            
+            if( failovers > 0 && !cluster.ringer.awaitLeader( cluster.ringer.epoch(), 60000 ) )
+                throw new IllegalStateException( "The last leader was never announced" );
+            for( int i = 0; i < failovers; i++ )
+                cluster.failover();
+            if( failovers > 0 )
+                Logger.info( "Failover over %d crashes: %s", cluster, failovers, 
+                        cluster.ringer.failover().summary() );
+        } catch( RemoteException re ) {
+            Logger.error( "The local cluster failed: " + re, cluster );
+        } catch( Exception e ) {
+            Logger.error( "Exception occurred: " + e, cluster );
+        }
+
+        System.exit( 0 );
+    }
+}
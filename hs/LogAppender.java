@@ -0,0 +1,164 @@
+
+package hs;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring buffer of pending log lines, drained by a background writer thread.
+ *
+ * Slots are allocated once and reused: a logging thread claims one with a
+ * single getAndIncrement, stores the level, timestamp, source, format and
+ * arguments (primitive ones as longs, unboxed), and publishes it by
+ * writing the slot's sequence number. No lock is taken, so logging threads
+ * only ever meet on the claim counter. All boxing, formatting and console
+ * output happens on the writer thread. When the buffer is full loggers
+ * wait for room rather than dropping lines. Pending lines are written out
+ * on JVM shutdown.
+ */
+public class LogAppender implements Runnable {
+
+    //Slots in the buffer, set with -Dhs.log.buffer
+    private static final int CAPACITY = Integer.highestOneBit(
+            Math.max( 2, Integer.getInteger( "hs.log.buffer", 8192 ) ) );
+
+    private static final int BATCH = CAPACITY; //Most lines written out at once
+    private static final long IDLE_NANOS = 1000000; //Longest the writer parks without a wakeup
+
+    //One pending line
+    private static final class Slot {
+        volatile long sequence = -1; //Claim the slot was last filled for, written last
+        Logger.Level level;
+        long time;
+        Loggable source;
+        String format;
+        int argc;
+        int longs; //Bit i set: argument i is in the long fields
+        Object a, b, c;
+        long la, lb, lc;
+
+        //Argument i, boxed here on the writer thread if it came as a long
+        Object arg( int i ) {
+            boolean isLong = ( longs & ( 1 << i ) ) != 0;
+            switch( i ) {
+                case 0: return isLong ? (Object)la : a;
+                case 1: return isLong ? (Object)lb : b;
+                default: return isLong ? (Object)lc : c;
+            }
+        }
+    }
+
+    private final Slot[] slots = new Slot[CAPACITY];
+    private final int mask = CAPACITY - 1;
+
+    private final AtomicLong tail = new AtomicLong(); //Next slot to claim
+    private volatile long head = 0; //Next slot to write out, moved by the writer only
+    private volatile boolean idle = false; //Writer is (about to be) parked
+
+    private final Thread writer;
+
+    public LogAppender() {
+        for( int i = 0; i < CAPACITY; i++ )
+            slots[i] = new Slot();
+
+        writer = new Thread( this, "Logger" );
+        writer.setDaemon( true );
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "Logger-flush" ) );
+    }
+
+    //Queueing a line, waiting if the buffer is full
+    public void append( Logger.Level level, long time, Loggable source, String format,
+            int argc, int longs, Object a, Object b, Object c, long la, long lb, long lc ) {
+        long claim = tail.getAndIncrement();
+        while( claim - head >= CAPACITY ) { //The slot is still to be written out
+            if( idle )
+                LockSupport.unpark( writer );
+            Thread.yield();
+        }
+
+        Slot s = slots[(int)claim & mask];
+        s.level = level;
+        s.time = time;
+        s.source = source;
+        s.format = format;
+        s.argc = argc;
+        s.longs = longs;
+        s.a = a;
+        s.b = b;
+        s.c = c;
+        s.la = la;
+        s.lb = lb;
+        s.lc = lc;
+        s.sequence = claim; //Publishing
+
+        if( idle )
+            LockSupport.unpark( writer );
+    }
+
+    //Waiting until everything appended so far has been written
+    public void flush() {
+        long target = tail.get();
+        long deadline = System.currentTimeMillis() + 5000;
+        LockSupport.unpark( writer );
+        while( head < target && writer.isAlive() && System.currentTimeMillis() < deadline ) {
+            try {
+                Thread.sleep( 1 );
+            } catch( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    //Writer loop
+    @Override
+    public void run() {
+        StringBuilder out = new StringBuilder( 4096 );
+        StringBuilder err = new StringBuilder( 256 );
+        long next = 0;
+
+        while( true ) {
+            int lines = 0;
+            Slot s;
+            while( lines < BATCH && (s = slots[(int)next & mask]).sequence == next ) {
+                String line;
+                try {
+                    line = Logger.format( s.level, s.time, s.source, s.format,
+                            s.argc, s.arg( 0 ), s.arg( 1 ), s.arg( 2 ) );
+                } catch( RuntimeException re ) { //Bad format or logIdent(), keeping the raw text
+                    line = s.level + " " + s.format + " (" + re + ")\n";
+                }
+                ( s.level == Logger.Level.ERROR ? err : out ).append( line ).append( '\n' );
+                s.source = null;
+                s.a = s.b = s.c = null;
+                next++;
+                lines++;
+            }
+
+            if( out.length() > 0 ) {
+                System.out.print( out );
+                System.out.flush();
+                out.setLength( 0 );
+            }
+            if( err.length() > 0 ) {
+                System.err.print( err );
+                err.setLength( 0 );
+            }
+            head = next; //Written out, the slots may be claimed again
+
+            if( lines == 0 ) { //Nothing published, parking until a logger wakes us
+                idle = true;
+                if( slots[(int)next & mask].sequence != next )
+                    LockSupport.parkNanos( this, IDLE_NANOS );
+                idle = false;
+            }
+        }
+    }
+}
@@ -1,57 +1,207 @@
 
 package hs;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 /**
+ *
+ * Level-gated logger. Messages below the configured level (-Dhs.log, INFO
+ * by default) cost a single comparison: the parameterized variants take a
+ * format and its arguments, and nothing is formatted unless the line is
+ * actually written.
+ *
+ * Lines are handed to a {@link LogAppender} that formats and writes them on
+ * its own thread, so node threads neither contend on System.out nor on a
+ * lock (-Dhs.log.async=false writes synchronously instead).
  *
  * @author Surya Selvaraj
  */
 public class Logger {
 
-    //Defining types of log
-    private static enum LogType {
-        INFO,
+    //Defining types of log, from the most to the least important
+    public static enum Level {
+        ERROR,
         WARN,
-        DEBUG,
-        ERROR
+        INFO,
+        DEBUG
     };
 
-    //Setting Date Format to be used in log
-    private static DateFormat dateFormat = new SimpleDateFormat( "yyyy/MM/dd HH:mm:ss" );
+    private static volatile Level level = configuredLevel(); //Most verbose level written
+
+    private static final LogAppender appender = Boolean.parseBoolean(
+            System.getProperty( "hs.log.async", "true" ) ) ? new LogAppender() : null;
+
+    //Level set with -Dhs.log=error|warn|info|debug
+    private static Level configuredLevel() {
+        String name = System.getProperty( "hs.log", "info" ).trim();
+        for( Level l : Level.values() )
+            if( l.name().equalsIgnoreCase( name ) )
+                return l;
+        return Level.INFO;
+    }
+
+    public static void setLevel( Level l ) {
+        level = l;
+    }
 
-    //Defining each log type
+    public static Level level() {
+        return level;
+    }
+
+    //Whether lines of the given level are written
+    public static boolean isEnabled( Level l ) {
+        return l.ordinal() <= level.ordinal();
+    }
+
+    //Guard for call sites that would otherwise box or build arguments
+    public static boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() <= level.ordinal();
+    }
+
+    //Defining each log type. Primitive arguments go through the long variants
+    //(ints widen to them) and are only boxed if the line is written
     public static void info( String msg, Loggable obj ) {
-        String info = String.format(																														/* a small hack down below */
-            "[INFO][%1$tH:%1$tM:%1$tS:%1$tL] - %2$s: %3$s%n", Calendar.getInstance().getTime(), (obj != null ) ? obj.logIdent():"Unknown", msg );
-        
-        write( info, LogType.INFO );
+        log( Level.INFO, obj, msg, 0, 0, null, null, null, 0, 0, 0 );
+    }
+
+    public static void info( String format, Loggable obj, Object a ) {
+        log( Level.INFO, obj, format, 1, 0, a, null, null, 0, 0, 0 );
     }
-    
+
+    public static void info( String format, Loggable obj, Object a, Object b ) {
+        log( Level.INFO, obj, format, 2, 0, a, b, null, 0, 0, 0 );
+    }
+
+    public static void info( String format, Loggable obj, Object a, Object b, Object c ) {
+        log( Level.INFO, obj, format, 3, 0, a, b, c, 0, 0, 0 );
+    }
+
+    public static void info( String format, Loggable obj, long a ) {
+        log( Level.INFO, obj, format, 1, 1, null, null, null, a, 0, 0 );
+    }
+
+    public static void info( String format, Loggable obj, long a, Object b ) {
+        log( Level.INFO, obj, format, 2, 1, null, b, null, a, 0, 0 );
+    }
+
+    public static void info( String format, Loggable obj, long a, long b ) {
+        log( Level.INFO, obj, format, 2, 3, null, null, null, a, b, 0 );
+    }
+
+    public static void info( String format, Loggable obj, long a, long b, long c ) {
+        log( Level.INFO, obj, format, 3, 7, null, null, null, a, b, c );
+    }
+
     public static void warn( String msg, Loggable obj ) {
-        String info = String.format(																														/* a small hack down below */
-            "[WARN][%1$tH:%1$tM:%1$tS:%1$tL] - %2$s: %3$s%n", Calendar.getInstance().getTime(), (obj != null ) ? obj.logIdent():"Unknown", msg );
-        
-        write( info, LogType.WARN );
+        log( Level.WARN, obj, msg, 0, 0, null, null, null, 0, 0, 0 );
+    }
+
+    public static void warn( String format, Loggable obj, Object a ) {
+        log( Level.WARN, obj, format, 1, 0, a, null, null, 0, 0, 0 );
+    }
+
+    public static void warn( String format, Loggable obj, Object a, Object b ) {
+        log( Level.WARN, obj, format, 2, 0, a, b, null, 0, 0, 0 );
     }
-    
+
+    public static void warn( String format, Loggable obj, Object a, Object b, Object c ) {
+        log( Level.WARN, obj, format, 3, 0, a, b, c, 0, 0, 0 );
+    }
+
+    public static void warn( String format, Loggable obj, long a ) {
+        log( Level.WARN, obj, format, 1, 1, null, null, null, a, 0, 0 );
+    }
+
+    public static void warn( String format, Loggable obj, long a, Object b ) {
+        log( Level.WARN, obj, format, 2, 1, null, b, null, a, 0, 0 );
+    }
+
+    public static void warn( String format, Loggable obj, long a, long b ) {
+        log( Level.WARN, obj, format, 2, 3, null, null, null, a, b, 0 );
+    }
+
+    public static void warn( String format, Loggable obj, long a, long b, long c ) {
+        log( Level.WARN, obj, format, 3, 7, null, null, null, a, b, c );
+    }
+
     public static void debug( String msg, Loggable obj ) {
-        String info = String.format(																														/* a small hack down below */
-            "[DEBUG][%1$tH:%1$tM:%1$tS:%1$tL] - %2$s: %3$s%n", Calendar.getInstance().getTime(), (obj != null ) ? obj.logIdent():"Unknown", msg );
-        
-        write( info, LogType.DEBUG );
+        log( Level.DEBUG, obj, msg, 0, 0, null, null, null, 0, 0, 0 );
+    }
+
+    public static void debug( String format, Loggable obj, Object a ) {
+        log( Level.DEBUG, obj, format, 1, 0, a, null, null, 0, 0, 0 );
+    }
+
+    public static void debug( String format, Loggable obj, Object a, Object b ) {
+        log( Level.DEBUG, obj, format, 2, 0, a, b, null, 0, 0, 0 );
+    }
+
+    public static void debug( String format, Loggable obj, Object a, Object b, Object c ) {
+        log( Level.DEBUG, obj, format, 3, 0, a, b, c, 0, 0, 0 );
     }
-    
+
+    public static void debug( String format, Loggable obj, long a ) {
+        log( Level.DEBUG, obj, format, 1, 1, null, null, null, a, 0, 0 );
+    }
+
+    public static void debug( String format, Loggable obj, long a, Object b ) {
+        log( Level.DEBUG, obj, format, 2, 1, null, b, null, a, 0, 0 );
+    }
+
+    public static void debug( String format, Loggable obj, long a, long b ) {
+        log( Level.DEBUG, obj, format, 2, 3, null, null, null, a, b, 0 );
+    }
+
+    public static void debug( String format, Loggable obj, long a, long b, long c ) {
+        log( Level.DEBUG, obj, format, 3, 7, null, null, null, a, b, c );
+    }
+
     public static void error( String msg, Loggable obj ) {
-        String info = String.format(																														/* a small hack down below */
-            "[ERROR][%1$tH:%1$tM:%1$tS:%1$tL] - %2$s: %3$s%n", Calendar.getInstance().getTime(), (obj != null ) ? obj.logIdent():"Unknown", msg );
-        
-        write( info, LogType.ERROR );
+        log( Level.ERROR, obj, msg, 0, 0, null, null, null, 0, 0, 0 );
+    }
+
+    //Waiting until everything logged so far has been written
+    public static void flush() {
+        if( appender != null )
+            appender.flush();
+    }
+
+    //Longs is a bit mask of the arguments passed in la, lb and lc rather than a, b and c
+    private static void log( Level l, Loggable obj, String format, int argc, int longs,
+            Object a, Object b, Object c, long la, long lb, long lc ) {
+        if( l.ordinal() > level.ordinal() )
+            return;
+
+        long time = System.currentTimeMillis();
+        if( appender != null )
+            appender.append( l, time, obj, format, argc, longs, a, b, c, la, lb, lc );
+        else
+            write( format( l, time, obj, format, argc, ( longs & 1 ) != 0 ? (Object)la : a,
+                    ( longs & 2 ) != 0 ? (Object)lb : b, ( longs & 4 ) != 0 ? (Object)lc : c ), l );
+    }
+
+    //Building the final line
+    static String format( Level l, long time, Loggable obj, String format, int argc,
+            Object a, Object b, Object c ) {
+        String msg;
+        switch( argc ) {
+            case 0:
+                msg = format;
+                break;
+            case 1:
+                msg = String.format( format, a );
+                break;
+            case 2:
+                msg = String.format( format, a, b );
+                break;
+            default:
+                msg = String.format( format, a, b, c );
+                break;
+        }
+        return String.format( "[%1$s][%2$tH:%2$tM:%2$tS:%2$tL] - %3$s: %4$s%n",
+                l, time, ( obj != null ) ? obj.logIdent() : "Unknown", msg );
     }
 
     //Using switch case for log type to write
-    private static void write( String msg, LogType type ) {
+    static void write( String msg, Level type ) {
         switch( type ) {
             case INFO:
             case WARN:
@@ -0,0 +1,149 @@
+
+package hs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Multi-producer/single-consumer queue of probes for a Node.
+ *
+ * Any number of threads (RMI dispatch threads, senders of other nodes) may
+ * offer probes; only the node's own thread takes them. Offering is a
+ * single atomic swap on the tail, and the consumer is woken up only when
+ * it is actually parked.
+ */
+public class Mailbox {
+
+    //Linked cell holding one probe
+    private static final class Cell {
+        Probe probe;
+        volatile Cell next;
+
+        Cell( Probe p ) { probe = p; }
+    }
+
+    private Cell head; //Consumer side, always a consumed (empty) cell
+    private final AtomicReference<Cell> tail; //Producer side
+
+    private final AtomicInteger size = new AtomicInteger(); //Current depth
+
+    private final IdleStrategy idle; //How the consumer waits
+
+    private volatile Thread consumer; //Thread currently waiting in take()
+    private volatile boolean parked = false; //Consumer is (about to be) parked
+    private volatile boolean woken = false; //take() should return without a probe
+
+    public Mailbox( IdleStrategy idle ) {
+        this.idle = idle;
+        head = new Cell( null );
+        tail = new AtomicReference<Cell>( head );
+    }
+
+    public Mailbox() {
+        this( IdleStrategy.configured() );
+    }
+
+    //Adding a probe, safe from any thread
+    public void offer( Probe probe ) {
+        Cell cell = new Cell( probe );
+        Cell prev = tail.getAndSet( cell );
+        prev.next = cell;
+
+        size.incrementAndGet();
+
+        if( parked ) //Waking up the consumer only if it sleeps
+            wake();
+    }
+
+    //Taking the earliest probe without waiting, consumer thread only
+    public Probe poll() {
+        Cell next = head.next;
+        if( next == null )
+            return null;
+
+        head = next;
+        Probe p = next.probe;
+        next.probe = null;
+
+        size.decrementAndGet();
+        return p;
+    }
+
+    //Waiting for the next probe, consumer thread only. Returns null if
+    //wakeup() was called meanwhile
+    public Probe take() throws InterruptedException {
+        return take( 0 );
+    }
+
+    //Waiting up to timeoutNanos (forever if not positive) for the next probe,
+    //returns null on timeout or wakeup()
+    public Probe take( long timeoutNanos ) throws InterruptedException {
+        Probe p = poll();
+        if( p != null )
+            return p;
+        if( woken ) {
+            woken = false;
+            return null;
+        }
+
+        long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        consumer = Thread.currentThread();
+
+        for( int idleCount = 0; ; idleCount++ ) {
+            if( (p = poll()) != null )
+                return p;
+            if( woken ) {
+                woken = false;
+                return null;
+            }
+
+            long remaining = 0;
+            if( deadline != 0 && (remaining = deadline - System.nanoTime()) <= 0 )
+                return null;
+
+            if( !idle.parks( idleCount ) ) {
+                idle.idle( idleCount );
+                continue;
+            }
+
+            parked = true;
+            try {
+                //Re-checking after announcing the park so an offer can't slip by
+                if( head.next == null && !woken )
+                    idle.park( remaining );
+            } finally {
+                parked = false;
+            }
+
+            if( Thread.interrupted() )
+                throw new InterruptedException();
+        }
+    }
+
+    //Making the consumer's current (or next) take() return, even without a probe
+    public void wakeup() {
+        woken = true;
+        wake();
+    }
+
+    //Unparking the consumer
+    private void wake() {
+        Thread t = consumer;
+        if( t != null )
+            LockSupport.unpark( t );
+    }
+
+    //Probes waiting to be taken
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public IdleStrategy idleStrategy() {
+        return idle;
+    }
+}
@@ -9,7 +9,8 @@ package hs;
 public enum MessageType {
     ELECTION,
     REPLY,
-    ANNOUNCEMENT;
+    ANNOUNCEMENT,
+    HEARTBEAT;
     //Overriding toString() to return the type of message accordingly
     @Override
     public String toString() {
@@ -24,6 +25,9 @@ public enum MessageType {
             case ANNOUNCEMENT:
                 ret = "Announcement";
                 break;
+            case HEARTBEAT:
+                ret = "Heartbeat";
+                break;
         }
         return ret; 
     }
@@ -0,0 +1,61 @@
+
+package hs;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the nodes' and the Ringer's MXBeans with the platform MBean
+ * server, under the domain "hs", so that jconsole, VisualVM or any other
+ * JMX client can watch an election while it runs. Set with -Dhs.jmx as
+ *
+ *   true       the Ringer and nodes running in a JVM of their own (the default)
+ *   all        also every in-memory node of a LocalCluster
+ *   false      none
+ *
+ * Attributes are read on the JMX client's thread, without stopping the
+ * node: they are a live view, not a consistent snapshot.
+ */
+public class Monitoring {
+
+    public static final String PROPERTY = "hs.jmx";
+    public static final String DOMAIN = "hs";
+
+    private static final String MODE = System.getProperty( PROPERTY, "true" ).trim().toLowerCase();
+
+    //Whether beans are registered, for in-memory (local) nodes or the rest
+    public static boolean enabled( boolean local ) {
+        return local ? MODE.equals( "all" ) : !MODE.equals( "false" );
+    }
+
+    //Registering the owner's bean as hs:type=<type>,name=<name>, replacing an older one of that name
+    public static ObjectName register( Object bean, String type, String name, Loggable owner ) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = ObjectName.getInstance( DOMAIN + ":type=" + type
+                    + ",name=" + name );
+            if( server.isRegistered( objectName ) ) //Left by an earlier ring in this JVM
+                server.unregisterMBean( objectName );
+            server.registerMBean( bean, objectName );
+            return objectName;
+        } catch( JMException jme ) {
+            Logger.warn( "Could not register the %s MBean %s: %s", owner, type, name, jme );
+        } catch( SecurityException se ) {
+            Logger.warn( "Not allowed to register the %s MBean %s: %s", owner, type, name, se );
+        }
+        return null;
+    }
+
+    //Removing a registered bean, null is ignored
+    public static void unregister( ObjectName objectName ) {
+        if( objectName == null )
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+        } catch( JMException jme ) { //Replaced or gone already
+        } catch( SecurityException se ) {
+        }
+    }
+}
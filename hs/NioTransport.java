@@ -0,0 +1,284 @@
+
+package hs;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends probes over plain TCP sockets instead of RMI calls.
+ *
+ * Probes travel in length-prefixed frames: a 4 byte length followed by
+ * one or more fixed-size probe headers (see {@link Probe#write}), so a
+ * batch of probes (up to MAX_BATCH) costs a single frame; a connection
+ * sending a frame of any other length is closed. Inbound connections are
+ * served by a single selector thread that decodes frames and drops the
+ * probes in the node's mailbox;
+ * outbound connections are opened once per neighbour and kept for the
+ * lifetime of the link.
+ */
+public class NioTransport implements Transport, Loggable {
+
+    private static final int BUFFER_SIZE = 64 * 1024; //Initial read buffer per connection
+    private static final int MAX_BATCH = 1 << 16; //Most probes in a frame, far above any -Dhs.batch.size
+
+    private final String host;
+
+    private ServerSocketChannel server;
+    private Selector selector;
+    private NodeService local; //Node probes are delivered to
+
+    private volatile boolean open = false;
+
+    private final ConcurrentHashMap<String, NioLink> links = new ConcurrentHashMap<String, NioLink>(); //Outbound connections by endpoint
+
+    public NioTransport( String host ) {
+        this.host = host;
+    }
+
+    @Override
+    public synchronized void bind( NodeService local ) throws IOException {
+        if( open )
+            return;
+
+        this.local = local;
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind( new InetSocketAddress( host, 0 ) );
+        server.configureBlocking( false );
+        server.register( selector, SelectionKey.OP_ACCEPT );
+
+        open = true;
+
+        Thread t = Threads.platform( new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, logIdent() );
+        t.setDaemon( true );
+        t.start();
+    }
+
+    @Override
+    public String endpoint() {
+        try {
+            InetSocketAddress address = (InetSocketAddress)server.getLocalAddress();
+            return host + ":" + address.getPort();
+        } catch( IOException ioe ) {
+            return null;
+        }
+    }
+
+    @Override
+    public Link connect( NodeService n ) throws RemoteException {
+        String endpoint = n.endpoint();
+
+        if( endpoint == null )
+            throw new RemoteException( "Neighbour has no NIO endpoint, is it "
+                    + "running another transport?" );
+
+        NioLink link = links.get( endpoint );
+        if( link == null ) {
+            link = new NioLink( endpoint );
+            NioLink raced = links.putIfAbsent( endpoint, link );
+            if( raced != null ) {
+                link.close();
+                link = raced;
+            }
+        }
+        return link;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        try {
+            if( selector != null )
+                selector.close();
+            if( server != null )
+                server.close();
+        } catch( IOException ioe ) {
+            Logger.error( "Failed to close the transport: " + ioe, this );
+        }
+        for( NioLink link : links.values() )
+            link.close();
+        links.clear();
+    }
+
+    //Selector loop accepting connections and reading frames
+    private void serve() {
+        while( open ) {
+            try {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while( keys.hasNext() ) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if( !key.isValid() )
+                        continue;
+                    if( key.isAcceptable() )
+                        accept();
+                    else if( key.isReadable() )
+                        read( key );
+                }
+            } catch( IOException ioe ) {
+                if( open )
+                    Logger.error( "The selector failed: " + ioe, this );
+            } catch( RuntimeException re ) { //Selector closed underneath us
+                if( open )
+                    Logger.error( "The selector failed: " + re, this );
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if( channel == null )
+            return;
+
+        channel.configureBlocking( false );
+        channel.setOption( StandardSocketOptions.TCP_NODELAY, true );
+        channel.register( selector, SelectionKey.OP_READ, ByteBuffer.allocate( BUFFER_SIZE ) );
+    }
+
+    private void read( SelectionKey key ) {
+        SocketChannel channel = (SocketChannel)key.channel();
+        ByteBuffer buffer = (ByteBuffer)key.attachment();
+
+        try {
+            if( channel.read( buffer ) < 0 ) { //Neighbour went away
+                key.cancel();
+                channel.close();
+                return;
+            }
+
+            buffer.flip();
+            while( buffer.remaining() >= 4 ) {
+                int length = buffer.getInt( buffer.position() );
+                if( length <= 0 || length % Probe.SIZE != 0 || length > MAX_BATCH * Probe.SIZE )
+                    throw new IOException( "Bad frame of " + length + " bytes" ); //Out of step or not ours
+
+                if( buffer.remaining() < 4 + length ) {
+                    if( 4 + length > buffer.capacity() ) { //Frame bigger than the buffer
+                        ByteBuffer bigger = ByteBuffer.allocate( 4 + length );
+                        bigger.put( buffer );
+                        bigger.flip();
+                        key.attach( bigger );
+                        buffer = bigger;
+                    }
+                    break;
+                }
+
+                buffer.getInt();
+                if( length == Probe.SIZE ) { //Single probe
+                    local.send( Probe.read( buffer ) );
+                    continue;
+                }
+
+                Probe[] probes = new Probe[length / Probe.SIZE];
+                for( int i = 0; i < probes.length; i++ )
+                    probes[i] = Probe.read( buffer );
+                local.sendBatch( probes );
+            }
+            buffer.compact();
+        } catch( IOException ioe ) {
+            Logger.error( "Failed to read a probe: " + ioe, this );
+            key.cancel();
+            try {
+                channel.close();
+            } catch( IOException ignored ) {
+            }
+        }
+    }
+
+    @Override
+    public String logIdent() {
+        return "NIO " + endpoint();
+    }
+
+    @Override
+    public String toString() {
+        return "NIO";
+    }
+
+    /**
+     * Persistent outbound connection to one neighbour endpoint.
+     */
+    private class NioLink implements Link {
+
+        private final String endpoint;
+        private SocketChannel channel;
+
+        private ByteBuffer frame = ByteBuffer.allocate( 4 + Probe.SIZE ); //Reused, grown for batches
+
+        NioLink( String endpoint ) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void send( Probe probe ) throws RemoteException {
+            send( new Probe[] { probe }, 1 );
+        }
+
+        @Override
+        public synchronized void send( Probe[] probes, int count ) throws RemoteException {
+            try {
+                if( channel == null )
+                    channel = open();
+
+                for( int from = 0; from < count; from += MAX_BATCH ) { //A frame per MAX_BATCH probes
+                    int n = Math.min( count - from, MAX_BATCH );
+                    int length = n * Probe.SIZE;
+                    if( frame.capacity() < 4 + length )
+                        frame = ByteBuffer.allocate( 4 + length );
+
+                    frame.clear();
+                    frame.putInt( length );
+                    for( int i = from; i < from + n; i++ )
+                        probes[i].write( frame );
+                    frame.flip();
+
+                    while( frame.hasRemaining() )
+                        channel.write( frame );
+                }
+            } catch( IOException ioe ) {
+                close();
+                throw new RemoteException( "Failed to send to " + endpoint, ioe );
+            }
+        }
+
+        private SocketChannel open() throws IOException {
+            int colon = endpoint.lastIndexOf( ':' );
+            SocketChannel c = SocketChannel.open( new InetSocketAddress(
+                    endpoint.substring( 0, colon ),
+                    Integer.parseInt( endpoint.substring( colon + 1 ) ) ) );
+            c.setOption( StandardSocketOptions.TCP_NODELAY, true );
+            return c;
+        }
+
+        @Override
+        public synchronized void close() {
+            if( channel == null )
+                return;
+            try {
+                channel.close();
+            } catch( IOException ioe ) {
+                Logger.error( "Failed to close link to " + endpoint + ": " + ioe,
+                        NioTransport.this );
+            }
+            channel = null;
+        }
+    }
+}
@@ -1,36 +1,96 @@
 package hs;
 
+import java.io.IOException;
 import java.lang.Thread.State;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.UnknownHostException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.Calendar;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
 
 /**
  * The Node class represents a single node in the topology. It has
  * server and client capabilites and registers itself through the Ringer
  * Service.
  * 
+ * A Node either runs in its own JVM and is exported through RMI (see
+ * main()), or is one of many in-memory nodes of a {@link LocalCluster}.
+ * 
+ * With heartbeats configured (see {@link Wiring}) nodes stay up once they
+ * have reported: the leader sends a HEARTBEAT probe around the ring every
+ * period, and a node that hears none for the timeout tells the Ringer,
+ * which repairs the ring and starts the election of the next epoch.
+ * Probes of an earlier epoch are dropped, a later one resets the node.
+ * 
+ * Once it knows the leader a node answers leader() from memory, with a
+ * lease that ends when it would start suspecting the leader (or after
+ * -Dhs.lease ms without heartbeats).
+ * 
+ * A persistent node (see {@link Wiring}) also stays up, so that the Ringer
+ * can run election after election on the same ring, each in an epoch of
+ * its own. The node reports once per epoch and leaves when the Ringer
+ * calls shutdown().
+ * 
+ * In a hierarchical election the node is first wired into a sub-ring. The
+ * sub-ring's winner is then wired into a ring of winners for a second
+ * election, and once back in its sub-ring it is told the overall leader
+ * (follow()), which it announces there in the epoch after.
+ * 
+ * The winner is announced around the ring (back to itself; a node relaying
+ * a leader from a ring of sub-ring leaders stops one hop short of itself),
+ * both ways around it (each wave carries the hops it may go in its phase,
+ * so the two stop where they meet;
+ * a node that has a leader already drops the announcement anyway), or with
+ * the TREE announcement
+ * along skip pointers 1, 2, 4... nodes to the right: each node passes the
+ * announcement on to the part of the ring it is responsible for (its span,
+ * carried in the probe's phase), halving it at every hop.
+ * 
+ * Unless -Dhs.jmx says otherwise, a node in its own JVM registers an
+ * MXBean (see {@link NodeMonitorMXBean}) showing its election state,
+ * queues and message counts while it runs.
+ * 
+ * With -Dhs.trace the node also appends a record to its {@link Journal}
+ * for every election probe it sends or processes, for the critical path
+ * of the election to be worked out afterwards (see {@link TraceAnalyzer}).
  * 
  * @author Surya Selvaraj
  */
 //Standard Node class impleme nting the features discussed in class
-public class Node extends UnicastRemoteObject implements NodeService, Runnable, 
-        Loggable  {
+public class Node implements NodeService, Runnable, Loggable  {
    
-    private static NodeService node = null; //Current node
-    private static RingerService ringer = null; //Topology
+    private static Node node = null; //Current node when running standalone
     
-    private NodeService left; //Left pointer
-    private NodeService right; //Right pointer
+    private final RingerService ringer; //Topology
+    private final boolean standalone; //Own JVM: exit once done
+    
+    private volatile NodeService left; //Left pointer, replaced when the ring is repaired
+    private volatile NodeService right; //Right pointer
+    
+    private int position; //Index in the ring
+    private int ringSize; //Nodes in the ring
+    
+    private final Transport transport; //Carries probes to the neighbours
+    private volatile Link leftLink; //Opened on first send to the left
+    private volatile Link rightLink; //Opened on first send to the right
+    private final Object linkLock = new Object(); //Held while rewiring and while opening a link
+    
+    private volatile Announcement announcement = Announcement.RING; //How the leader is announced
+    private volatile NodeService[] skips; //Nodes 2^k to the right, for TREE
+    private volatile Link[] skipLinks; //Opened on first send, skip 0 is the right link
+    private volatile long[] peers; //When tracing, pids of the left node, then of skip k at k + 1
+    
+    private final int outboxCapacity = Outbox.configuredCapacity(); //0 sends synchronously
+    private final int batchSize = Outbox.configuredBatchSize(); //Probes coalesced per call
+    private final int linger = Outbox.configuredLinger(); //Microseconds to wait for a batch
     
     private long pid; //Process ID
+    private String ident; //logIdent(), cached
     private long leaderPid; //Leader ID
     
     private boolean participating = false; //Participation flag
@@ -38,56 +98,158 @@ public class Node extends UnicastRemoteObject implements NodeService, Runnable,
     private boolean hasLeader = false; //Has leader
     
     private boolean announcedAsLeader = false; //Announced Leader flag
+    private volatile Leadership leadership; //Leader of the current epoch, for leader()
+    
+    private Election election; //Algorithm state, the node delegates probes to it
+    
+    private volatile boolean activated = false; //Activation flag, set by the Ringer
     
-    private int phase = 0;
-    private int replies = 0;
+    private int epoch = 0; //Election this node is in
+    private volatile int requestedEpoch = 0; //Election the Ringer asked for
+    private volatile Leadership relay; //Leader to announce in the requested epoch, see follow()
+    private boolean reported = false; //Report of the current epoch sent
+    private volatile boolean crashed = false; //Simulated failure, see crash()
+    private volatile boolean persistent = false; //Staying up for later epochs
+    private volatile boolean stopped = false; //Told to leave by the Ringer
     
-    private boolean activated = false; //Activation flag
+    private volatile long heartbeat = 0; //Nanoseconds between heartbeats, 0 for none
+    private volatile long timeout = 0; //Nanoseconds of silence before suspecting the leader
+    private volatile long lastHeartbeat; //System.nanoTime() of the last heartbeat seen
+    private long nextHeartbeat; //System.nanoTime() the leader sends the next one
     
+    private long joined; //System.nanoTime() when this node joined the election
+    private long phaseStarted; //System.nanoTime() when the current phase began
+    private int phase; //Phase of the election when last looked at
     
-    private Queue<Probe> messages; //Queue to store messages
     
-    private Random rand = new Random();
+    private Mailbox messages; //Mailbox to store messages, filled by any thread
     
     private Thread me;
     
     private Report report;
     
-    private Node() throws RemoteException { //Constructor
-        super();
+    private ObjectName monitor; //Registered MXBean, null if none
+    
+    private final Journal journal; //Trace of the probes handled, null unless -Dhs.trace
+    private int cause = -1; //Journal record of what the node is acting on, -1 for none
+    
+    private Node( RingerService ringer, Transport transport, 
+            boolean standalone ) throws IOException { //Constructor
+        this.ringer = ringer;
+        this.transport = transport;
+        this.standalone = standalone;
         
-        rand.setSeed( Calendar.getInstance().getTimeInMillis() );
+        pid = ThreadLocalRandom.current().nextLong(); //Random process ID, distinct across nodes of one JVM
         
-        pid = rand.nextLong(); //Random process ID
+        election = Algorithm.configured().newElection();
         
-        messages = new LinkedList<Probe>(); //Messages queue instantiated
+        messages = new Mailbox(); //Messages mailbox instantiated
         report = new Report( String.format( "Node-%x", pid ) ); //Report object instantiated
+        journal = Journal.configured( pid );
+        
+        transport.bind( this ); //Receiving probes
+    }
+
+    //Creating a node running in its own JVM
+    private static Node newInstance( RingerService ringer, Transport transport ) 
+            throws IOException {
+        Node instance = new Node( ringer, transport, true );
+        
+        instance.me = Threads.platform( instance, instance.logIdent() );
+        instance.monitor( false );
+        
+        return instance;
     }
 
-    //Creating new nodes
-    private static Node newInstance() throws RemoteException {
-        Node instance = new Node();
+    //Creating an in-memory node of a local cluster, its loop runs on a virtual thread
+    static Node newLocalInstance( RingerService ringer, Transport transport ) 
+            throws IOException {
+        Node instance = new Node( ringer, transport, false );
         
-        instance.me = new Thread( instance );
-        instance.me.setName( instance.logIdent() );
+        instance.me = Threads.virtual( instance, instance.logIdent() );
+        instance.monitor( true );
         
         return instance;
     }
 
-    //Activation
+    //Activation, the node loop starts the election
+    @Override
+    public void activate() {
+        activated = true;
+        start();
+        messages.wakeup();
+        Logger.debug( "I have been activated", this ); //Log update
+    }
+    
+    //Joining the election of a later epoch, the node loop resets itself
+    @Override
+    public void elect( int epoch ) {
+        requestedEpoch = epoch;
+        start();
+        messages.wakeup();
+    }
+    
+    //The leader as far as this node knows, the lease running until it would suspect it
     @Override
-    public synchronized void activate() {
-        if( me.getState() == State.NEW ) {
+    public Leadership leader() {
+        Leadership known = leadership;
+        if( known == null || heartbeat <= 0 || known.pid == pid )
+            return known;
+        long remaining = lastHeartbeat + timeout - System.nanoTime();
+        return new Leadership( known.pid, known.epoch, known.leader, 
+                TimeUnit.NANOSECONDS.toMillis( remaining ) );
+    }
+    
+    //Publishing the leader of the current epoch to leader()
+    private void learned( NodeService leader ) {
+        long lease = heartbeat > 0 ? TimeUnit.NANOSECONDS.toMillis( timeout ) : Leadership.LEASE;
+        leadership = new Leadership( leaderPid, epoch, leader, lease );
+    }
+    
+    //Announcing a leader elected elsewhere in the epoch that comes with it
+    @Override
+    public void follow( Leadership leadership ) {
+        relay = leadership;
+        requestedEpoch = leadership.epoch;
+        start();
+        messages.wakeup();
+    }
+    
+    //Leaving the ring, the node loop ends
+    @Override
+    public void shutdown() {
+        stopped = true;
+        start();
+        messages.wakeup();
+    }
+    
+    @Override
+    public void ping() throws RemoteException {
+        if( crashed )
+            throw new RemoteException( logIdent() + " is down" );
+    }
+    
+    //Simulating a failure: the node stops and refuses probes, it never reports
+    void crash() {
+        crashed = true;
+        messages.wakeup();
+        Logger.info( "Crashing", this );
+    }
+    
+    //Starting the node loop if it isn't running yet
+    private synchronized void start() {
+        if( me.getState() == State.NEW )
             me.start();
-            activated = true;
-            Logger.debug( "I have been activated", this ); //Log update
-        }
     }
 
     //Return Process ID
     @Override
     public long pid() { return pid; }
 
+    //Return where the transport receives probes
+    @Override
+    public String endpoint() { return transport.endpoint(); }
+
     //Return left neighbor in ring
     @Override
     public NodeService left() throws RemoteException { return left; }
@@ -96,199 +258,489 @@ public class Node extends UnicastRemoteObject implements NodeService, Runnable,
     @Override
     public NodeService right() throws RemoteException { return right; }
 
-    //Assigning left neighbor for a given node
-    @Override
-    public void left( NodeService n ) throws RemoteException {
-        left = n;
-        if( n != null && ( n.right() == null || n.right().pid() != pid ) )
-            n.right( (NodeService)this );
-    }
-
-    //Assigning right neighbor for a given node
+    //Assigning both neighbors, called once by the Ringer when the ring is full
     @Override
-    public void right( NodeService n ) throws RemoteException {
-        right = n;
-        if( n != null && ( n.left() == null || n.left().pid() != pid ) )
-            n.left( (NodeService)this );
+    public void wire( Wiring wiring ) throws RemoteException {
+        synchronized( linkLock ) { //No link to the old neighbours is opened meanwhile
+            close( leftLink );
+            close( rightLink );
+            Link[] old = skipLinks;
+            if( old != null )
+                for( Link link : old )
+                    close( link );
+            
+            left = wiring.left;
+            right = wiring.right;
+            leftLink = null;
+            rightLink = null;
+            
+            skips = wiring.skips;
+            skipLinks = wiring.skips != null ? new Link[wiring.skips.length] : null;
+        }
+        
+        if( journal != null ) { //Sends are journaled with their receiver, copies along skips differ by it alone
+            long[] pids = new long[1 + Math.max( 1, wiring.skips != null ? wiring.skips.length : 0 )];
+            pids[0] = pidOf( wiring.left );
+            pids[1] = pidOf( wiring.right );
+            for( int k = 1; wiring.skips != null && k < wiring.skips.length; k++ )
+                pids[1 + k] = pidOf( wiring.skips[k] );
+            peers = pids;
+        }
+        
+        announcement = wiring.announcement != null ? wiring.announcement : Announcement.RING;
+        
+        position = wiring.position;
+        ringSize = wiring.size;
+        heartbeat = TimeUnit.MILLISECONDS.toNanos( wiring.heartbeat );
+        timeout = TimeUnit.MILLISECONDS.toNanos( wiring.timeout );
+        persistent = wiring.persistent;
+        
+        Logger.debug( "Wired at position %d of %d", this, position, ringSize );
+        
+        start(); //The loop acknowledges readiness once it runs
     }
 
     //Just got a probe, adding to messages queue
     @Override
     public void send( Probe probe ) throws RemoteException {
-        Logger.debug( String.format( "Just got a probe(%x) of type: %s", 
-                probe.id, probe.type ), this );
+        if( Logger.isDebugEnabled() ) //Not boxing the id otherwise
+            Logger.debug( "Just got a probe(%x) of type: %s", this, probe.id, probe.type );
+        if( crashed )
+            throw new RemoteException( logIdent() + " is down" );
         if( me.getState() == State.NEW )
-            activate();
+            start();
         
-        messages.add( probe );
+        messages.offer( probe ); //Wakes up the node thread if it is idle
     }
 
-    //Reading the earliest msg from queue - FIFO
+    //Just got several probes from one neighbour, adding them in order
+    @Override
+    public void sendBatch( Probe[] probes ) throws RemoteException {
+        for( Probe probe : probes )
+            send( probe );
+    }
+
+    //Reading the earliest msg from queue - FIFO. Only the node thread may take
     @Override
     public  Probe receive() throws RemoteException {
         //Logger.debug( "I am trying to read in a message", this );
         return messages.poll();
     }
 
-    //Sending a probe
-    private void send( NodeService n, Probe p ) throws RemoteException {
-        n.send( p );
-        report.msg();
+    //Sending a probe to the neighbour in the given direction
+    private void send( Direction d, Probe p ) throws RemoteException {
+        send( link( d ), d == Direction.LEFT ? 0 : 1, p );
+    }
+    
+    //Sending a probe on a link, to the peer at the given index of peers
+    private void send( Link link, int peer, Probe p ) throws RemoteException {
+        p.sent = System.nanoTime(); //Hop latency includes the outbound queue
+        if( journal != null && p.type != MessageType.HEARTBEAT ) { //Before the receiver may touch it
+            long[] pids = peers;
+            journal.append( Journal.Event.SEND, p, pids != null && peer < pids.length ? pids[peer] : 0,
+                    cause, epoch );
+        }
+        link.send( p );
+        if( p.type != MessageType.HEARTBEAT ) //Only election traffic is reported
+            report.msg();
+    }
+    
+    //Link to a neighbour, connected on first use. Opened under the lock wire() holds,
+    //so a link is never cached for a neighbour that was just replaced (and left open)
+    private Link link( Direction d ) throws RemoteException {
+        Link link = d == Direction.LEFT ? leftLink : rightLink;
+        if( link != null )
+            return link;
+        
+        synchronized( linkLock ) {
+            if( d == Direction.LEFT ) {
+                if( (link = leftLink) == null )
+                    leftLink = link = outbox( d, transport.connect( left ) );
+            } else {
+                if( (link = rightLink) == null )
+                    rightLink = link = outbox( d, transport.connect( right ) );
+            }
+        }
+        return link;
+    }
+    
+    //Link to the node 2^k to the right, connected on first use like link()
+    private Link skipLink( int k ) throws RemoteException {
+        if( k == 0 )
+            return link( Direction.RIGHT );
+        
+        Link link = skipLinks[k];
+        if( link != null )
+            return link;
+        
+        synchronized( linkLock ) {
+            Link[] links = skipLinks;
+            if( (link = links[k]) == null )
+                links[k] = link = outbox( "Skip" + k, transport.connect( skips[k] ) );
+        }
+        return link;
+    }
+    
+    //Pid of a wired node, 0 if it cannot be asked
+    private static long pidOf( NodeService n ) {
+        try {
+            return n != null ? n.pid() : 0;
+        } catch( RemoteException re ) {
+            return 0;
+        }
+    }
+    
+    //Putting a sender queue in front of a link, unless disabled. In-memory nodes without
+    //virtual threads send directly: a sender thread per link would cost two platform
+    //threads per node, only to wait on neighbours that never block
+    private Link outbox( Object name, Link link ) {
+        if( outboxCapacity <= 0 || ( !standalone && !Threads.virtualAvailable() ) )
+            return link;
+        return new Outbox( logIdent() + "-" + name, link, outboxCapacity, batchSize, 
+                linger, !standalone );
+    }
+    
+    //Every link opened so far
+    private Link[] links() {
+        Link[] skip = skipLinks;
+        int count = skip != null ? skip.length : 0;
+        Link[] links = new Link[2 + count];
+        links[0] = leftLink;
+        links[1] = rightLink;
+        for( int k = 0; k < count; k++ )
+            links[2 + k] = skip[k];
+        return links;
+    }
+    
+    private static void close( Link link ) {
+        if( link != null )
+            link.close();
+    }
+    
+    //Waiting for queued probes to leave, recording how deep the queues got
+    private void flush() {
+        for( Link link : links() ) {
+            if( link instanceof Outbox ) {
+                Outbox outbox = (Outbox)link;
+                outbox.flush();
+                report.queueDepth( outbox.highWater() );
+            }
+        }
+        if( transport instanceof FaultyTransport ) { //Delayed and lost probes too, then the losses
+            FaultyTransport faulty = (FaultyTransport)transport;
+            faulty.flush();
+            report.dropped( faulty.takeDropped() );
+        }
+    }
+    
+    //Probes waiting in the outbound queues
+    int outboxDepth() {
+        int depth = 0;
+        for( Link link : links() )
+            if( link instanceof Outbox )
+                depth += ( (Outbox)link ).depth();
+        return depth;
     }
 
     //Probing
     @Override
     public void probe( MessageType type, Direction direction ) 
             throws RemoteException {
-        Probe probe = new Probe( pid, type, phase );
-        
-        Logger.debug( String.format( "I'm about to probe(%x)", probe.id ), this );
+        emit( newProbe( type ), direction );
+    }
+    
+    //New probe from this node in the current phase
+    Probe newProbe( MessageType type ) {
+        Probe p = new Probe( pid, type, election.phase() );
+        p.epoch = epoch;
+        return p;
+    }
+    
+    //Sending out a new probe one way or both ways
+    void emit( Probe probe, Direction direction ) throws RemoteException {
+        if( Logger.isDebugEnabled() )
+            Logger.debug( "I'm about to probe(%x)", this, probe.id );
 
         //Checking direction of probe -> left and both
         if( direction == Direction.BOTH || direction == Direction.LEFT ) {
         
             probe.direction = Direction.LEFT;
             Logger.debug( "before send to left", this );
-            send( left, probe );
+            send( Direction.LEFT, probe );
             Logger.debug( "after send to left", this );
         }
 
         //Checking direction of probe -> right and both
         if( direction == Direction.BOTH || direction == Direction.RIGHT ) {
         
+            if( direction == Direction.BOTH ) //Left one may still be in flight in memory
+                probe = new Probe( probe );
             probe.direction = Direction.RIGHT;
             Logger.debug( "before send to right", this );
-            send( right, probe );
+            send( Direction.RIGHT, probe );
             Logger.debug( "after send to right", this );
         }
         
-        Logger.debug( String.format( "Ok, I probed(%x)", probe.id ), this );
+        if( Logger.isDebugEnabled() )
+            Logger.debug( "Ok, I probed(%x)", this, probe.id );
         
     }
 
     //Forwarding the probe based on direction
-    private  void forward( Probe probe ) throws RemoteException {
+    void forward( Probe probe ) throws RemoteException {
         if( probe.direction == Direction.RIGHT )
-            send( right, probe );
+            send( Direction.RIGHT, probe );
         else 
-            send( left, probe );
+            send( Direction.LEFT, probe );
     }
 
     //Reply to a probe
-    private  void reply( Probe probe ) throws RemoteException {
+    void reply( Probe probe ) throws RemoteException {
         probe.type = MessageType.REPLY;
 
         //Replying left
         if( probe.direction == Direction.RIGHT ) {
             probe.direction = Direction.LEFT;
-            send( left, probe );
+            send( Direction.LEFT, probe );
         } else { //Replying right
             probe.direction = Direction.RIGHT;
-            send( right, probe );
+            send( Direction.RIGHT, probe );
         }
     }
 
     //Process a probe
-    private  void processProbe( Probe probe ) 
+    void processProbe( Probe probe ) 
             throws RemoteException {
         
+        if( probe.type == MessageType.HEARTBEAT ) {
+            heartbeat( probe );
+            return;
+        }
+        
         report.rcv(); // report a received msg
+        if( journal != null ) //What the node sends from here on is caused by this probe
+            cause = journal.append( Journal.Event.RECEIVE, probe, probe.last_pid, -1, epoch );
+        report.hopLatency().record( System.nanoTime() - probe.sent ); //Negative across hosts, dropped
         
-        Logger.debug( String.format( "I am processing probe(%x) "
-                + "now", probe.id ), this );
+        boolean debug = Logger.isDebugEnabled(); //Not boxing ids when debug is off
+        
+        if( debug )
+            Logger.debug( "I am processing probe(%x) "
+                    + "now", this, probe.id );
         
         probe.last_pid = pid;
         
         probe.hops++;
         
-        switch( probe.type ) {
-            case ELECTION: //Election probe
-                Logger.debug( String.format( "It's an Election probe "
-                        + "originally from Node-%x", probe.src_pid ), this );
-                if( probe.src_pid > pid ) { //Hop according to Process ID
-                    
-                    int maxHops = (int)Math.pow( 2, probe.phase );
-                    
-                    if( probe.hops < maxHops ) { //Hops < Max #Hops
-
-                        Logger.debug( String.format( "Probe max hops (2^%d): "
-                                + "%d, it's at %d hops so far...forwarding to "
-                                + "the %s", probe.phase, maxHops, 
-                                probe.hops, probe.direction ), this );
-                        forward( probe );
-
-                    }
-                    else if( probe.hops == maxHops ) { //Hops reached max #hops
-                        Logger.debug( String.format( "Probe(%x) has reached "
-                                + "it's max hops(%d), sending a reply "
-                                + "back", probe.id, probe.hops ), this);
-                        
-                        reply( probe ); //Send a reply
-                        
-                    } 
-                    
-                }
-                else if( probe.src_pid == pid ) { //Finished a complete circle of probe
-                    
-                    if( hasLeader ) { //Check if already has a leader
-                        Logger.debug( String.format( "I already have a "
-                                + "leader: Node-%x", leaderPid ), this );
-                        break;
-                    }
-                    //If it doesn't have a leader, it means it is the leader
-                    isLeader = true;
-                    hasLeader = true;
-                    leaderPid = pid;
-                    Logger.debug( "Announcing myself as winner", this );
-                    
-                    probe( MessageType.ANNOUNCEMENT, Direction.RIGHT ); //Probe an Announcement
-                    
-                } else //src pid < cuurent pid
-                    Logger.debug( String.format( "Swallowed probe(%x) "
-                        + "because I'm a greater node than Node-%x", 
-                        probe.id, probe.src_pid ), this );
-            break;
-                
-            case REPLY: //Reply Probe
-                Logger.debug( String.format( "It's an Reply probe for "
-                        + "Node-%x", probe.src_pid ), this );
-                if( probe.src_pid != pid ) { //If it is not the reply for me, forward it
-                    
-                    forward( probe );
-                   
-                    
-                } else { //If the reply is for me, increment reply count
-                    replies++;
-                    if( replies >= 2 ) { //I got at least 2 replies, Entering next phase
-                        phase++;
-                        
-                        Logger.debug( "I am entering phase " + phase, this );
-                        
-                        probe( MessageType.ELECTION, Direction.BOTH ); //Probe Election on both sides
-                        
-                        replies = 0; //Resetting reply count to zero
-                    }
-                }
-                
-            break;
-                
-            case ANNOUNCEMENT: //Announcement probe
-                Logger.debug( String.format( "It's an Announcement probe "
-                        + "from Node-%x", probe.src_pid ), this );
-                if( !hasLeader && probe.src_pid != pid ) { //If I don't have a leader and I am not the one initiated it
-                   
+        if( probe.type == MessageType.ANNOUNCEMENT ) { //Announcement probe
+            if( debug )
+                Logger.debug( "It's an Announcement probe "
+                        + "from Node-%x", this, probe.src_pid );
+            if( !hasLeader && probe.src_pid != pid ) { //If I don't have a leader and I am not the one initiated it
+               
+                if( announcement == Announcement.TREE && skips != null )
+                    disseminate( probe, probe.phase ); //Passing it on to my span
+                else if( probe.hops < probe.phase ) //Not as far as the wave may go yet
                     forward( probe ); //Forward the probe
-                    
-                    leaderPid = probe.src_pid; //Set the leader as the Process that initiated it
-                    hasLeader = true;   //Set hasLeader flag to true
-                } else announcedAsLeader = true; //I am the leader
                 
-            break;
+                leaderPid = probe.src_pid; //Set the leader as the Process that initiated it
+                hasLeader = true;   //Set hasLeader flag to true
+                lastHeartbeat = System.nanoTime(); //Silence is counted from here
+                learned( null );
+                report.announcementTime().record( lastHeartbeat - joined );
+                report.announcementHops().record( probe.hops );
+                report.announcementDelay().record( lastHeartbeat - probe.created );
+            } else { //I am the leader
+                announcedAsLeader = true;
+                if( isLeader ) { //My announcement came all the way around
+                    report.announcementTime().record( System.nanoTime() - joined );
+                    nextHeartbeat = System.nanoTime();
+                    ringer.elected( pid, epoch );
+                }
+            }
+        } else {
+            election.process( this, probe ); //Election and Reply probes
+            
+            if( election.phase() != phase ) { //Moved on to a later phase
+                long now = System.nanoTime();
+                report.phaseTime().record( now - phaseStarted );
+                phaseStarted = now;
+                phase = election.phase();
+            }
+        }
+        
+        if( debug )
+            Logger.debug( "I finished processing probe(%x) "
+                    + "now", this, probe.id );
+        
+    }
+
+    //Forgetting the leader, so that the next announcement is taken in again (see Bench)
+    void forgetLeader() {
+        hasLeader = false;
+        leadership = null;
+    }
+
+    //Called by the election algorithm when this node has won
+    void elected() throws RemoteException {
+        if( hasLeader ) { //Check if already has a leader
+            Logger.debug( "I already have a "
+                    + "leader: Node-%x", this, leaderPid );
+            return;
+        }
+        //If it doesn't have a leader, it means it is the leader
+        isLeader = true;
+        hasLeader = true;
+        leaderPid = pid;
+        learned( this );
+        report.leaderTime().record( System.nanoTime() - joined );
+        if( journal != null )
+            journal.append( Journal.Event.ELECTED, null, 0, cause, epoch );
+        Logger.debug( "Announcing myself as winner", this );
+        announce();
+    }
+    
+    //Taking the leader elected among the sub-ring leaders, and announcing it here
+    private void pass( Leadership above ) throws RemoteException {
+        isLeader = above.pid == pid;
+        hasLeader = true;
+        leaderPid = above.pid;
+        lastHeartbeat = System.nanoTime();
+        learned( isLeader ? this : null );
+        Logger.debug( "Passing on leader Node-%x", this, leaderPid );
+        announce();
+    }
+    
+    //Announcing leaderPid to the ring, the way it is configured to
+    private void announce() throws RemoteException {
+        if( announcement == Announcement.BOTH || 
+                ( announcement == Announcement.TREE && skips != null ) ) {
+            if( announcement == Announcement.BOTH )
+                announceBothWays();
+            else
+                disseminate( newAnnouncement(), ringSize );
+            announcedAsLeader = true; //Nothing comes back around
+            if( isLeader ) {
+                report.announcementTime().record( System.nanoTime() - joined );
+                nextHeartbeat = System.nanoTime();
+                ringer.elected( pid, epoch );
+            }
+        } else {
+            Probe probe = newAnnouncement();
+            if( isLeader ) {
+                probe.phase = ringSize; //Hops it may go: comes back around to me
+                emit( probe, Direction.RIGHT );
+            } else { //Relaying a leader from elsewhere, stopping short of me
+                probe.phase = ringSize - 1;
+                announcedAsLeader = true;
+                if( probe.phase > 0 )
+                    emit( probe, Direction.RIGHT );
+            }
         }
+    }
+    
+    //New announcement of leaderPid, usually this node
+    private Probe newAnnouncement() {
+        Probe p = newProbe( MessageType.ANNOUNCEMENT );
+        p.src_pid = leaderPid;
+        return p;
+    }
+    
+    //Sending the announcement both ways, each wave covering half of the others
+    private void announceBothWays() throws RemoteException {
+        int rightward = ringSize / 2;
+        int leftward = ( ringSize - 1 ) / 2;
         
-        Logger.debug( String.format( "I finished processing probe(%x) "
-                + "now", probe.id ), this );
+        if( rightward > 0 ) {
+            Probe probe = newAnnouncement();
+            probe.phase = rightward; //Hops it may go
+            emit( probe, Direction.RIGHT );
+        }
+        if( leftward > 0 ) {
+            Probe probe = newAnnouncement();
+            probe.phase = leftward;
+            emit( probe, Direction.LEFT );
+        }
+    }
+    
+    //Passing an announcement on to the span nodes starting with me, along the skips
+    private void disseminate( Probe probe, int span ) throws RemoteException {
+        for( int k = 0; k < skips.length && ( 1 << k ) < span; k++ ) {
+            Probe child = new Probe( probe ); //Each subtree gets its own copy
+            child.phase = Math.min( 1 << k, span - ( 1 << k ) ); //Span of the child
+            child.direction = Direction.RIGHT;
+            send( skipLink( k ), k + 1, child );
+        }
+    }
+
+    //A heartbeat from the leader, passed on around the ring
+    private void heartbeat( Probe probe ) throws RemoteException {
+        if( probe.src_pid == pid ) //Mine, came all the way around
+            return;
         
+        lastHeartbeat = System.nanoTime();
+        probe.last_pid = pid;
+        probe.hops++;
+        forward( probe );
+    }
+    
+    //Sending the leader's heartbeat, or telling the Ringer the leader is silent
+    private void tick() throws RemoteException {
+        long now = System.nanoTime();
+        if( isLeader ) {
+            if( now - nextHeartbeat >= 0 ) {
+                emit( newProbe( MessageType.HEARTBEAT ), Direction.RIGHT );
+                nextHeartbeat = now + heartbeat;
+            }
+        } else if( now - lastHeartbeat >= timeout ) {
+            long silent = TimeUnit.NANOSECONDS.toMillis( now - lastHeartbeat );
+            Logger.warn( "No heartbeat from Node-%x for %d ms", this, leaderPid, silent );
+            lastHeartbeat = now; //Not asking again before another timeout
+            ringer.leaderLost( pid, epoch, leaderPid, silent );
+        }
+    }
+    
+    //Nanoseconds until tick() has something to do, 0 to wait for probes only
+    private long untilTick() {
+        if( heartbeat <= 0 || !done() )
+            return 0;
+        long until = ( isLeader ? nextHeartbeat : lastHeartbeat + timeout ) - System.nanoTime();
+        return Math.max( 1, until );
+    }
+    
+    //Whether this node knows the outcome of the current election
+    private boolean done() {
+        return isLeader ? announcedAsLeader : hasLeader;
+    }
+    
+    //Leaving the current election for a later one
+    private void enter( int e ) {
+        Logger.info( "Entering the election of epoch %d", this, e );
+        epoch = e;
+        election = Algorithm.configured().newElection();
+        report = new Report( logIdent(), e ); //Each epoch is reported on its own
+        reported = false;
+        joined = phaseStarted = System.nanoTime(); //For nodes that only hear the announcement
+        participating = false;
+        activated = false; //Joining on the epoch's probes, or being told to
+        isLeader = false;
+        hasLeader = false;
+        announcedAsLeader = false;
+        leaderPid = 0;
+        leadership = null;
+        cause = -1;
+    }
+    
+    //Joining the current election, on the given probe or (null) on activation
+    private void join( Probe on ) throws RemoteException {
+        if( journal != null )
+            cause = journal.append( on == null ? Journal.Event.ACTIVATE : Journal.Event.JOIN, 
+                    on, on != null ? on.last_pid : 0, -1, epoch );
+        joined = phaseStarted = System.nanoTime();
+        phase = election.phase();
+        participating = true; //Set participating flag to true
+        election.start( this ); //Sending the algorithm's first probes
+        Logger.debug( "I am now participating", this );
     }
 
     //Implementing Runnable, so override run()
@@ -299,110 +751,270 @@ public class Node extends UnicastRemoteObject implements NodeService, Runnable,
         
         Logger.debug( "I am running. ", this );
         
-        if( !participating ) { //If not participating
-            try {
-                probe( MessageType.ELECTION, Direction.BOTH ); //Probe Election on both sides
-            } catch( RemoteException re ) {
-                Logger.error( "The service failed: " + re, this );
-            }
-            participating = true; //Set participating flag to true
-            Logger.debug( "I am now participating", this );
+        try {
+            ringer.ready( pid ); //Telling the Ringer I can be activated
+        } catch( RemoteException re ) {
+            Logger.error( "Failed to acknowledge readiness: " + re, this );
         }
 
 
         Probe p; //Probe object
-        while( true ) {
-            //If leader is me and I have been announced
-           if( isLeader && announcedAsLeader )
-                break;
-           
+        while( !crashed && !stopped ) {
             try {
-                //If a probe is received, process it
-                if( (p = receive()) != null ) {
-                    processProbe( p );
-
-                    //If I have a leader and I am not the leader, I am done. I no longer contend
-                    if( hasLeader && !isLeader )
+                if( requestedEpoch > epoch ) { //The Ringer started a new election here
+                    int e = requestedEpoch;
+                    Leadership above = relay;
+                    enter( e );
+                    if( above != null && above.epoch == e )
+                        pass( above );
+                    else
+                        join( null );
+                }
+                
+                if( done() ) {
+                    if( !reported ) { //Reporting on this epoch's election
+                        finish();
+                        reported = true;
+                    }
+                    if( heartbeat <= 0 && !persistent ) //Nothing left to do
                         break;
                 }
-                // if you are running over 128 nodes, a lil sleep helped my system cope
-                //Thread.sleep( 5000 );
+                
+                //Waiting for a probe (or activation) without burning the cpu
+                p = messages.take( untilTick() );
+                
+                if( p != null && p.epoch != epoch ) {
+                    if( p.epoch < epoch ) //Left over from an earlier election
+                        continue;
+                    enter( p.epoch );
+                }
+                
+                //Activated, or got a first election probe: joining the election
+                if( !participating && !crashed && !stopped && ( activated || 
+                        ( p != null && p.type != MessageType.ANNOUNCEMENT ) ) ) {
+                    Probe on = activated ? null : p;
+                    activated = false;
+                    join( on );
+                }
+                
+                if( p != null && !( done() && p.type != MessageType.HEARTBEAT ) ) //Once done, only heartbeats matter
+                    processProbe( p );
+                
+                if( heartbeat > 0 && done() )
+                    tick();
             } catch( RemoteException re ) {
                 Logger.error( "The service failed in run(): " + re, this );
                 re.printStackTrace();
-            } 
+            } catch( InterruptedException ie ) {
+                Logger.error( "Interrupted while waiting for probes: " + ie, this );
+                break;
+            }
 
  
         }
         
-        me.interrupt();
+        Monitoring.unregister( monitor );
+        if( journal != null )
+            journal.close();
         
-        finish();
+        if( !standalone || crashed ) //Other nodes share this JVM
+            return;
         
+        try {
+            Thread.sleep( 100 ); //Letting the last remote calls return
+        } catch( InterruptedException ie ) {
+        }
+        System.exit( 0 );
     }
     
     public void finish() {
         try {
             //If I am not the leader, print the leader
             if( !isLeader ) //{
-                Logger.info( String.format( "Node-%x has chosen leader: "
-                        + "Node-%x", pid, leaderPid ), this );
+                Logger.info( "Node-%x has chosen leader: "
+                        + "Node-%x", this, pid, leaderPid );
 
             else //I am the leader !!
                 Logger.info( "I have conquered all...I am leader", this );
             
-            Logger.info( "Reporting to Ringer", this );
-            
-            Node.ringer.report( report );
-            
-            Thread.sleep( 100 );
-            me.join();
-            Thread.sleep( 100 );
+            flush(); //Probes still queued must not die with us
             
+            Logger.info( "Reporting to Ringer", this );
             
+            ringer.report( report );
             
-        } catch( InterruptedException ie ) {
         } catch( RemoteException re ) {
             Logger.error( "The service failed in finish(): " + re, this );
         }
-            
-        System.exit(0);
+    }
+
+    //Registering the node's MXBean, if wanted for this kind of node
+    private void monitor( boolean local ) {
+        if( Monitoring.enabled( local ) )
+            monitor = Monitoring.register( new Monitor(), "Node", logIdent(), this );
+    }
+    
+    //The node as seen over JMX, read from the JMX client's thread without locking
+    private final class Monitor implements NodeMonitorMXBean {
+        
+        private Report counted; //Report the last rate was read from
+        private int lastReceived; //Its received count then
+        private long lastRead = System.nanoTime();
+        
+        @Override
+        public String getPid() { return String.format( "%x", pid ); }
+        @Override
+        public int getEpoch() { return epoch; }
+        @Override
+        public int getPosition() { return position; }
+        @Override
+        public int getRingSize() { return ringSize; }
+        @Override
+        public int getPhase() { return election.phase(); }
+        @Override
+        public int getReplies() { return election.replies(); }
+        @Override
+        public boolean isParticipating() { return participating; }
+        @Override
+        public boolean isLeaderKnown() { return hasLeader; }
+        @Override
+        public boolean isLeader() { return isLeader; }
+        @Override
+        public String getLeaderPid() { return hasLeader ? String.format( "%x", leaderPid ) : ""; }
+        @Override
+        public int getMailboxDepth() { return messages.size(); }
+        @Override
+        public int getOutboxDepth() { return outboxDepth(); }
+        @Override
+        public int getSentCount() { return report.sentMessageCount(); }
+        @Override
+        public int getReceivedCount() { return report.receiveMessageCount(); }
+        
+        @Override
+        public synchronized double getProbeRate() {
+            Report current = report;
+            int received = current.receiveMessageCount();
+            long now = System.nanoTime();
+            int since = current == counted ? received - lastReceived : received; //A new epoch starts at 0
+            double rate = since / ( ( now - lastRead ) / 1e9 );
+            counted = current;
+            lastReceived = received;
+            lastRead = now;
+            return rate;
+        }
     }
 
     //Implemeting Loggable, so overriding logIdent()
     @Override
     public String logIdent() {
-        return String.format( "Node-%x", pid );
+        if( ident == null ) //Built once, the pid never changes
+            ident = String.format( "Node-%x", pid );
+        return ident;
+    }
+
+    //Registration attempts and first backoff in ms, set with 
+    //-Dhs.register.attempts and -Dhs.register.backoff
+    private static final int REGISTER_ATTEMPTS = Integer.getInteger( "hs.register.attempts", 8 );
+    private static final long REGISTER_BACKOFF = Long.getLong( "hs.register.backoff", 100 );
+    private static final long MAX_BACKOFF = 5000; //Cap on a single wait
+    
+    //Logging identity until the node exists, the JVM's pid@host
+    private static final Loggable BOOTSTRAP = new Loggable() {
+        @Override
+        public String logIdent() {
+            return "Node-" + ManagementFactory.getRuntimeMXBean().getName();
+        }
+    };
+    
+    //The node to log as, once there is one
+    private static Loggable logged() {
+        return node != null ? node : BOOTSTRAP;
+    }
+    
+    //Looking up the Ringer, retrying while the registry isn't up yet
+    private static RingerService lookupRinger() throws RemoteException, 
+            NotBoundException, MalformedURLException {
+        for( int attempt = 1; ; attempt++ ) {
+            try {
+                return (RingerService)Naming.lookup( "Ringer" );
+            } catch( RemoteException re ) {
+                backoff( attempt, "look up the Ringer", re );
+            } catch( NotBoundException nbe ) {
+                if( attempt >= REGISTER_ATTEMPTS )
+                    throw nbe;
+                backoff( attempt, "look up the Ringer", new RemoteException( nbe.toString() ) );
+            }
+        }
+    }
+    
+    //Registering with the Ringer, retrying when it is overloaded
+    private static void register( RingerService ringer, Node node ) 
+            throws RemoteException, NotBoundException, MalformedURLException {
+        for( int attempt = 1; ; attempt++ ) {
+            try {
+                ringer.registerNode( node );
+                return;
+            } catch( RemoteException re ) {
+                backoff( attempt, "register", re );
+            }
+        }
+    }
+    
+    //Sleeping before the next attempt (exponential, with jitter), or giving up
+    private static void backoff( int attempt, String what, RemoteException cause ) 
+            throws RemoteException {
+        if( attempt >= REGISTER_ATTEMPTS )
+            throw cause;
+        
+        long wait = Math.min( MAX_BACKOFF, REGISTER_BACKOFF << ( attempt - 1 ) );
+        wait = wait / 2 + ThreadLocalRandom.current().nextLong( wait / 2 + 1 );
+        
+        Logger.warn( String.format( "Failed to %s (attempt %d of %d), retrying "
+                + "in %d ms: %s", what, attempt, REGISTER_ATTEMPTS, wait, 
+                cause.getMessage() ), logged() );
+        try {
+            Thread.sleep( wait );
+        } catch( InterruptedException ie ) {
+            throw cause;
+        }
     }
 
     //psvm()
     public static void main( String[] args ) {
         node = null;
         try {
+            //Ring look-up
+           RingerService ringer = lookupRinger();
+            
             //Instantiating Node object
-           node = Node.newInstance();
+           node = Node.newInstance( ringer, Transport.configured() );
+           
+           UnicastRemoteObject.exportObject( node, 0 ); //Serving remote calls
             
            Logger.info( "node created with pid: " + String.format( "%x", 
-                   node.pid() ), (Loggable)node );
-
-            //Ring look-up
-           ringer = (RingerService)Naming.lookup( "Ringer" );
+                   node.pid() ) + " using the " + node.transport + " transport "
+                   + "and " + Algorithm.configured(), logged() );
 
             //Register node to ring
-           ringer.registerNode( node );
+           register( ringer, node );
+           
+           return;
             
         } catch( NotBoundException nbe ) {
             Logger.error( "A remote object was not bound: " + nbe, 
-                    (Loggable)node );
+                    logged() );
         } catch( UnknownHostException uhe ) {
-            Logger.error( "Host not recognized: " + uhe, (Loggable)node );
+            Logger.error( "Host not recognized: " + uhe, logged() );
         } catch( RemoteException re ) {
             Logger.error( "Error starting service: " + re.getMessage(), 
-                    (Loggable)node );
+                    logged() );
         } catch( MalformedURLException mal ) {
-            Logger.error( "URL is possibly malformed: " + mal, (Loggable)node );
+            Logger.error( "URL is possibly malformed: " + mal, logged() );
+        } catch( IOException ioe ) {
+            Logger.error( "Error starting the transport: " + ioe, logged() );
         }
         
+        System.exit( 1 ); //Not part of any ring, nothing to stay up for
     }
     
 }
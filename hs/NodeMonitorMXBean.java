@@ -0,0 +1,37 @@
+
+package hs;
+
+/**
+ * Live view of a node over JMX, registered as hs:type=Node,name=Node-<pid>
+ * (see {@link Monitoring}). Counts are those of the current epoch's report,
+ * except for the probe rate.
+ */
+public interface NodeMonitorMXBean {
+
+    //Process ID, in hex as in the logs
+    public String getPid();
+
+    public int getEpoch();
+
+    //Position in the ring and its size, as last wired
+    public int getPosition();
+    public int getRingSize();
+
+    //Election state
+    public int getPhase();
+    public int getReplies();
+    public boolean isParticipating();
+    public boolean isLeaderKnown();
+    public boolean isLeader();
+    public String getLeaderPid();
+
+    //Probes waiting in the mailbox, and in the outbound queues
+    public int getMailboxDepth();
+    public int getOutboxDepth();
+
+    public int getSentCount();
+    public int getReceivedCount();
+
+    //Probes processed per second since the previous read of this attribute
+    public double getProbeRate();
+}
@@ -0,0 +1,116 @@
+
+package hs;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+/**
+ * Reference to a remote node that keeps its immutable attributes.
+ *
+ * The pid and transport endpoint are fetched once, when the Ringer
+ * registers the node, and travel with the reference when it is handed to
+ * the neighbours in a {@link Wiring}. Logging, wiring and connecting a
+ * transport then cost no remote calls; everything else is passed on to
+ * the node.
+ */
+public class NodeRef implements NodeService, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final NodeService node; //Stub of the remote node
+    private final long pid;
+    private final String endpoint;
+
+    private NodeRef( NodeService node ) throws RemoteException {
+        this.node = node;
+        pid = node.pid();
+        endpoint = node.endpoint();
+    }
+
+    //Reference to the node, in-memory nodes and references are used as they are
+    public static NodeService of( NodeService node ) throws RemoteException {
+        if( node instanceof Node || node instanceof NodeRef )
+            return node;
+        return new NodeRef( node );
+    }
+
+    @Override
+    public long pid() {
+        return pid;
+    }
+
+    @Override
+    public String endpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public void probe( MessageType type, Direction direction ) throws RemoteException {
+        node.probe( type, direction );
+    }
+
+    @Override
+    public void wire( Wiring wiring ) throws RemoteException {
+        node.wire( wiring );
+    }
+
+    @Override
+    public NodeService left() throws RemoteException {
+        return node.left();
+    }
+
+    @Override
+    public NodeService right() throws RemoteException {
+        return node.right();
+    }
+
+    @Override
+    public void activate() throws RemoteException {
+        node.activate();
+    }
+
+    @Override
+    public void elect( int epoch ) throws RemoteException {
+        node.elect( epoch );
+    }
+
+    @Override
+    public void follow( Leadership leadership ) throws RemoteException {
+        node.follow( leadership );
+    }
+
+    @Override
+    public void shutdown() throws RemoteException {
+        node.shutdown();
+    }
+
+    @Override
+    public void ping() throws RemoteException {
+        node.ping();
+    }
+
+    @Override
+    public Leadership leader() throws RemoteException {
+        return node.leader();
+    }
+
+    @Override
+    public void send( Probe probe ) throws RemoteException {
+        node.send( probe );
+    }
+
+    @Override
+    public void sendBatch( Probe[] probes ) throws RemoteException {
+        node.sendBatch( probes );
+    }
+
+    @Override
+    public Probe receive() throws RemoteException {
+        return node.receive();
+    }
+
+    @Override
+    public String toString() {
+        return String.format( "Node-%x", pid );
+    }
+}
@@ -4,29 +4,44 @@
  */
 package hs;
 
-import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 /**
  *
  * @author Surya Selvaraj
  */
-public interface NodeService extends Remote {
+public interface NodeService extends LeaderService {
     
     public static final String SERVICE_NAME_PREFIX = "Node"; 
     
     public void probe( MessageType type, Direction direction ) throws RemoteException;
     
-    public void left( NodeService n ) throws RemoteException;
-    public void right( NodeService n ) throws RemoteException;
+    //Setting both neighbours (and the ring position) in one call
+    public void wire( Wiring wiring ) throws RemoteException;
     
     public NodeService left() throws RemoteException;
     public NodeService right() throws RemoteException;
     
     public void activate() throws RemoteException;
     
+    //Starting the election of a later epoch on the same ring
+    public void elect( int epoch ) throws RemoteException;
+    
+    //Passing the leader elected among the sub-ring leaders on to this node's sub-ring
+    public void follow( Leadership leadership ) throws RemoteException;
+    
+    //Leaving the ring once the Ringer has no more elections to run
+    public void shutdown() throws RemoteException;
+    
+    //Answering only while the node is up
+    public void ping() throws RemoteException;
+    
     public void send( Probe probe ) throws RemoteException;
+    public void sendBatch( Probe[] probes ) throws RemoteException;
     public Probe receive() throws RemoteException;
     
     public long pid() throws RemoteException;
+    
+    //Where the node's transport accepts probes, null when it uses send()
+    public String endpoint() throws RemoteException;
 }
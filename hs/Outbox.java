@@ -0,0 +1,204 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded outbound queue in front of the link to one neighbour.
+ *
+ * The node thread only enqueues; a dedicated sender thread drains the queue
+ * into the underlying link, so a slow neighbour no longer stalls the node.
+ * When the queue is full send() blocks until there is room again.
+ *
+ * The sender coalesces: whatever is already queued (up to the batch size)
+ * goes out as one batch, and with a linger time set it waits that many
+ * microseconds for more probes before flushing a partial batch.
+ */
+public class Outbox implements Link, Runnable, Loggable {
+
+    //Queue capacity set with -Dhs.outbox.capacity, 0 sends synchronously
+    public static final String CAPACITY_PROPERTY = "hs.outbox.capacity";
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    //Most probes per batch, set with -Dhs.batch.size (1 disables batching)
+    public static final String BATCH_SIZE_PROPERTY = "hs.batch.size";
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    
+    //Microseconds to wait for a partial batch to fill, set with -Dhs.batch.linger
+    public static final String LINGER_PROPERTY = "hs.batch.linger";
+    public static final int DEFAULT_LINGER = 0;
+
+    private final String name;
+    private final Link target; //Link the sender drains into
+    private final BlockingQueue<Probe> queue;
+    private final Thread sender;
+    
+    private final Probe[] batch; //Reused by the sender
+    private final long lingerNanos;
+
+    private volatile boolean open = true;
+
+    private final AtomicInteger pending = new AtomicInteger(); //Queued or being sent
+    private final AtomicInteger highWater = new AtomicInteger(); //Deepest the queue got
+    private final AtomicLong sent = new AtomicLong(); //Handed to the link
+    private final AtomicLong failed = new AtomicLong(); //Link refused them
+    private final AtomicLong batches = new AtomicLong(); //Calls made on the link
+
+    public Outbox( String name, Link target, int capacity, int batchSize, 
+            long lingerMicros, boolean virtual ) {
+        this.name = name;
+        this.target = target;
+        queue = new ArrayBlockingQueue<Probe>( capacity );
+        batch = new Probe[Math.max( 1, batchSize )];
+        lingerNanos = TimeUnit.MICROSECONDS.toNanos( lingerMicros );
+
+        sender = virtual ? Threads.virtual( this, name ) : Threads.platform( this, name );
+        sender.setDaemon( true );
+        sender.start();
+    }
+
+    //Capacity configured for this JVM
+    public static int configuredCapacity() {
+        return Integer.getInteger( CAPACITY_PROPERTY, DEFAULT_CAPACITY );
+    }
+    
+    //Batch size configured for this JVM
+    public static int configuredBatchSize() {
+        return Integer.getInteger( BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE );
+    }
+    
+    //Linger time configured for this JVM, in microseconds
+    public static int configuredLinger() {
+        return Integer.getInteger( LINGER_PROPERTY, DEFAULT_LINGER );
+    }
+
+    //Enqueuing a probe, waiting for room if the queue is full
+    @Override
+    public void send( Probe probe ) throws RemoteException {
+        if( !open )
+            throw new RemoteException( name + " is closed" );
+
+        pending.incrementAndGet();
+        try {
+            queue.put( probe );
+        } catch( InterruptedException ie ) {
+            pending.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new RemoteException( "Interrupted while queueing for " + name, ie );
+        }
+
+        int depth = queue.size();
+        int max;
+        while( depth > (max = highWater.get()) && !highWater.compareAndSet( max, depth ) );
+    }
+
+    //Enqueuing several probes in order
+    @Override
+    public void send( Probe[] probes, int count ) throws RemoteException {
+        for( int i = 0; i < count; i++ )
+            send( probes[i] );
+    }
+
+    //Sender loop
+    @Override
+    public void run() {
+        while( open ) {
+            int count;
+            try {
+                count = fill();
+            } catch( InterruptedException ie ) { //Closed
+                break;
+            }
+
+            try {
+                if( count == 1 )
+                    target.send( batch[0] );
+                else
+                    target.send( batch, count );
+                sent.addAndGet( count );
+            } catch( RemoteException re ) {
+                failed.addAndGet( count );
+                Logger.error( String.format( "Failed to send %d probe(s) starting "
+                        + "with probe(%x): %s", count, batch[0].id, re ), this );
+            } finally {
+                batches.incrementAndGet();
+                for( int i = 0; i < count; i++ )
+                    batch[i] = null;
+                pending.addAndGet( -count );
+            }
+        }
+    }
+    
+    //Waiting for the next probe, then coalescing what follows into the batch
+    private int fill() throws InterruptedException {
+        int count = 0;
+        batch[count++] = queue.take();
+
+        Probe p;
+        while( count < batch.length && (p = queue.poll()) != null )
+            batch[count++] = p;
+
+        if( count < batch.length && lingerNanos > 0 ) {
+            long deadline = System.nanoTime() + lingerNanos;
+            long remaining;
+            while( count < batch.length && (remaining = deadline - System.nanoTime()) > 0 ) {
+                if( (p = queue.poll( remaining, TimeUnit.NANOSECONDS )) == null )
+                    break;
+                batch[count++] = p;
+            }
+        }
+        return count;
+    }
+
+    //Waiting until everything queued so far has been handed to the link
+    public void flush() {
+        while( pending.get() > 0 && sender.isAlive() ) {
+            try {
+                Thread.sleep( 1 );
+            } catch( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    //Flushing, then stopping the sender and closing the link
+    @Override
+    public void close() {
+        flush();
+        open = false;
+        sender.interrupt();
+        target.close();
+    }
+
+    //Probes waiting in the queue right now
+    public int depth() {
+        return queue.size();
+    }
+
+    public int highWater() {
+        return highWater.get();
+    }
+
+    public long sent() {
+        return sent.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    public long batches() {
+        return batches.get();
+    }
+
+    @Override
+    public String logIdent() {
+        return name;
+    }
+}
@@ -0,0 +1,97 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+
+/**
+ * Peterson / Dolev-Klawe-Rodeh: unidirectional O(n log n).
+ *
+ * In every phase an active node sends its current id to the right (an
+ * ELECTION probe) and then relays the id it got from its nearest active
+ * left neighbour (a REPLY probe). Having seen the ids of its two nearest
+ * active left neighbours, it stays active, adopting the middle id, only if
+ * that one is a local maximum; otherwise it becomes a relay that just
+ * forwards. An active node that receives its own id is the last one left;
+ * it stands for the highest id, and hands the win to that node with one
+ * more lap (a CROWN probe), so that the highest pid is elected as with the
+ * other algorithms. Here the id travels in src_pid. Relies on FIFO links, which the node's
+ * per-neighbour outbound queues provide.
+ */
+public class Peterson implements Election {
+
+    private static final int CROWN = -1; //Phase of the probe carrying the winning id to its node
+
+    private boolean active = true;
+    private long tid; //Id this node currently stands for
+    private long ntid; //Id of the nearest active left neighbour
+
+    private int phase = 0;
+    private int replies = 0; //Probes received in this phase
+
+    @Override
+    public void start( Node node ) throws RemoteException {
+        tid = node.pid();
+        send( node, MessageType.ELECTION, tid );
+    }
+
+    @Override
+    public void process( Node node, Probe probe ) throws RemoteException {
+        if( !active ) { //Relay
+            if( probe.phase == CROWN && probe.src_pid == node.pid() ) //The winning id is mine
+                node.elected();
+            else
+                node.forward( probe );
+            return;
+        }
+
+        replies++;
+
+        if( probe.type == MessageType.ELECTION ) {
+            if( probe.src_pid == tid ) { //My id came back, nobody else is active
+                if( tid == node.pid() )
+                    node.elected();
+                else { //Standing for another node, a relay now: it is the leader
+                    Probe crown = node.newProbe( MessageType.ELECTION );
+                    crown.src_pid = tid;
+                    crown.phase = CROWN;
+                    node.emit( crown, Direction.RIGHT );
+                }
+                return;
+            }
+            ntid = probe.src_pid;
+            send( node, MessageType.REPLY, ntid ); //Passing it on to the next active node
+        }
+        else if( probe.type == MessageType.REPLY ) {
+            long nntid = probe.src_pid;
+
+            if( ntid > tid && ntid > nntid ) { //Left neighbour's id is a local maximum
+                tid = ntid;
+                phase++;
+                replies = 0;
+                Logger.debug( "Entering phase %d standing for "
+                        + "Node-%x", node, phase, tid );
+                send( node, MessageType.ELECTION, tid );
+            } else {
+                active = false;
+                Logger.debug( "Becoming a relay in phase %d", node, phase );
+            }
+        }
+    }
+
+    //Sending an id to the right
+    private void send( Node node, MessageType type, long id ) throws RemoteException {
+        Probe probe = node.newProbe( type );
+        probe.src_pid = id;
+        node.emit( probe, Direction.RIGHT );
+    }
+
+    @Override
+    public int phase() {
+        return phase;
+    }
+
+    @Override
+    public int replies() {
+        return replies;
+    }
+}
@@ -4,24 +4,41 @@
  */
 package hs;
 
-import java.io.Serializable;
-import java.util.Calendar;
-import java.util.Random;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
+ * A probe travelling between nodes.
+ *
+ * On the wire a probe is a fixed-size header of SIZE bytes: src_pid,
+ * last_pid, id, created, sent, epoch, phase, hops, then one byte each for
+ * the type and direction ordinals. The same layout is used by Java serialization (Externalizable)
+ * and by transports writing straight to a ByteBuffer.
  *
  * @author Surya Selvaraj
  */
-public class Probe implements Serializable {
-        
+public class Probe implements Externalizable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int SIZE = 8 + 8 + 8 + 8 + 8 + 4 + 4 + 4 + 1 + 1; //Encoded bytes
+
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final Direction[] DIRECTIONS = Direction.values();
+
     public long src_pid; //Source initiating probe
     public long last_pid; //Last process in probe
     public long id;
+    public long created; //System.nanoTime() at the source, comparable on one host only
+    public long sent; //System.nanoTime() of the last send, comparable on one host only
+    public int epoch = 0; //Election the probe belongs to, a new one starts after a leader fails
     public int phase = 0; //Phase number
     public int hops = 0; // #Hops
-    
-    private Random rand = new Random();
-    
+
     public MessageType type; //Msg type object
     public Direction direction; //Direction object
 
@@ -29,11 +46,98 @@ public class Probe implements Serializable {
         src_pid = pid;
         last_pid = pid;
         type = msgtype;
-        
+
         this.phase = phase;
-        
-        rand.setSeed( Calendar.getInstance().getTimeInMillis() );
-        id = rand.nextLong();
+
+        id = ThreadLocalRandom.current().nextLong(); //No Random allocated per probe
+        created = System.nanoTime();
+    }
+
+    public Probe( Probe p ) { //Copy constructor, keeping the probe id
+        src_pid = p.src_pid;
+        last_pid = p.last_pid;
+        id = p.id;
+        created = p.created;
+        sent = p.sent;
+        epoch = p.epoch;
+        phase = p.phase;
+        hops = p.hops;
+        type = p.type;
+        direction = p.direction;
+    }
+
+    public Probe() { //Needed by Externalizable, fields are read in afterwards
+    }
+
+    //Writing the header at the buffer's position
+    public void write( ByteBuffer out ) {
+        out.putLong( src_pid )
+           .putLong( last_pid )
+           .putLong( id )
+           .putLong( created )
+           .putLong( sent )
+           .putInt( epoch )
+           .putInt( phase )
+           .putInt( hops )
+           .put( (byte)ordinal( type ) )
+           .put( (byte)ordinal( direction ) );
     }
-    
+
+    //Reading a header written by write()
+    public static Probe read( ByteBuffer in ) {
+        Probe p = new Probe();
+        p.src_pid = in.getLong();
+        p.last_pid = in.getLong();
+        p.id = in.getLong();
+        p.created = in.getLong();
+        p.sent = in.getLong();
+        p.epoch = in.getInt();
+        p.phase = in.getInt();
+        p.hops = in.getInt();
+        p.type = type( in.get() );
+        p.direction = direction( in.get() );
+        return p;
+    }
+
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException {
+        out.writeLong( src_pid );
+        out.writeLong( last_pid );
+        out.writeLong( id );
+        out.writeLong( created );
+        out.writeLong( sent );
+        out.writeInt( epoch );
+        out.writeInt( phase );
+        out.writeInt( hops );
+        out.writeByte( ordinal( type ) );
+        out.writeByte( ordinal( direction ) );
+    }
+
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException {
+        src_pid = in.readLong();
+        last_pid = in.readLong();
+        id = in.readLong();
+        created = in.readLong();
+        sent = in.readLong();
+        epoch = in.readInt();
+        phase = in.readInt();
+        hops = in.readInt();
+        type = type( in.readByte() );
+        direction = direction( in.readByte() );
+    }
+
+    //Enum ordinals on the wire, -1 for null
+    private static int ordinal( Enum<?> e ) {
+        return e == null ? -1 : e.ordinal();
+    }
+
+    private static MessageType type( byte b ) {
+        return b < 0 ? null : TYPES[b];
+    }
+
+    private static Direction direction( byte b ) {
+        return b < 0 ? null : DIRECTIONS[b];
+    }
+
 }
@@ -6,47 +6,91 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.AccessControlException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * What one node measured in one election epoch, sent to the Ringer once
+ * the node is done with it.
+ *
+ * Counters are atomic, as the node's outbound queues update them too.
+ * Latencies are histograms in nanoseconds: per hop, per phase, to winning
+ * (leader only) and to learning the leader, with the announcement's hops
+ * and delay. Probes lost to injected faults are counted apart.
  *
  * @author Surya Selvaraj
  */
 public class Report implements Loggable, Serializable {
     
     protected String author; //Author name
+    private final int epoch; //Election the report is about
+    
+    private final AtomicInteger sentMessageCount = new AtomicInteger(); //Tracking sent messages
+    private final AtomicInteger receiveMessageCount = new AtomicInteger(); //Tracking received messages
+    private final AtomicInteger maxQueueDepth = new AtomicInteger(); //Deepest outbound queue seen
+    private final AtomicInteger dropped = new AtomicInteger(); //Probes lost by an injected fault
     
-    private int sentMessageCount = 0; //Tracking sent messages
-    private int receiveMessageCount = 0; //Tracking received messages
+    private final Histogram hopLatency = new Histogram(); //Sent to processed, per hop
+    private final Histogram phaseTime = new Histogram(); //Entering to leaving a phase
+    private final Histogram leaderTime = new Histogram(); //Joining to winning the election
+    private final Histogram announcementTime = new Histogram(); //Joining to learning the leader
+    private final Histogram announcementHops = new Histogram(); //Hops the announcement took, not ns
+    private final Histogram announcementDelay = new Histogram(); //Leader announcing to node learning
     
     //Constructor
     public Report( String a ) {
+        this( a, 0 );
+    }
+    
+    public Report( String a, int epoch ) {
         author = a;
+        this.epoch = epoch;
     }
     //Incrementing sent msgs count on encounter
-    public void msg() { sentMessageCount++; }
+    public void msg() { sentMessageCount.incrementAndGet(); }
     //Incrementing received msgs count on encounter
-    public void rcv() { receiveMessageCount++; }
+    public void rcv() { receiveMessageCount.incrementAndGet(); }
+    //Recording an outbound queue depth, keeping the maximum
+    public void queueDepth( int depth ) { 
+        int max;
+        while( depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet( max, depth ) );
+    }
+    //Counting probes the network lost
+    public void dropped( long count ) { dropped.addAndGet( (int)count ); }
     //Getting author
     public String author() { return author; }
+    //Getting the election epoch
+    public int epoch() { return epoch; }
     //Getting sent msgs count
-    public int sentMessageCount() { return sentMessageCount; }
+    public int sentMessageCount() { return sentMessageCount.get(); }
     //Getting received msgs count
-    public int receiveMessageCount() { return receiveMessageCount; }
+    public int receiveMessageCount() { return receiveMessageCount.get(); }
+    //Getting the deepest outbound queue
+    public int maxQueueDepth() { return maxQueueDepth.get(); }
+    //Getting the probes the network lost
+    public int droppedCount() { return dropped.get(); }
+    //Getting the latency histograms
+    public Histogram hopLatency() { return hopLatency; }
+    public Histogram phaseTime() { return phaseTime; }
+    public Histogram leaderTime() { return leaderTime; }
+    public Histogram announcementTime() { return announcementTime; }
+    public Histogram announcementHops() { return announcementHops; }
+    public Histogram announcementDelay() { return announcementDelay; }
 
     //Getting summary of author, total #msgs sent and received
     public String summary() { 
         return String.format(
           "Report for %s - Total Messages Sent: %d | " +
-          "Total Received Messages: %d\n",
+          "Total Received Messages: %d | Max Queue Depth: %d\n",
           author,
-          sentMessageCount,
-          receiveMessageCount
+          sentMessageCount(),
+          receiveMessageCount(),
+          maxQueueDepth()
         );
     }
 
     //Getting the raw data of author, sent count and received count
     public String raw() {
-        return String.format( "%s %d %d\n", author, sentMessageCount, receiveMessageCount );
+        return String.format( "%s %d %d\n", author, sentMessageCount(), receiveMessageCount() );
     }
     //Implementing Loggable - override logIdent() - Log Identification
     @Override
@@ -1,80 +1,148 @@
-
 package hs;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
+ * Aggregate of the reports of every node, folded in as each report
+ * arrives: totals, maxima and the merged latency histograms take the same
+ * memory for ten nodes as for 100k, and no report is kept. Per-node lines
+ * are streamed to a {@link ReportWriter} instead (-Dhs.report.detail).
+ *
+ * When the Ringer runs several elections on one ring, the set of each
+ * epoch is kept apart and the measured ones are also folded into one
+ * set, which keeps the time each election took as well. A hierarchical
+ * election is one epoch per level, and the messages and time of each
+ * level are kept apart too.
  *
  * @author Surya Selvaraj
  */
 public class ReportSet extends Report implements Loggable {
 
-    private Set<Report> reports; //Set for reports
-    
-    private int totalSentCount = 0; //sent count
-    private int totalReceiveCount = 0; //received count
-    
-    private double sentAverage = 0.0; //sent average
-    private double receiveAverage = 0.0; //received average
+    private int size = 0; //Reports added so far
+
+    private long totalSentCount = 0; //sent count
+    private long totalReceiveCount = 0; //received count
+    private int maxQueueDepth = 0; //deepest outbound queue of any node
+    private long totalDropped = 0; //probes lost by injected faults
     
-    private boolean available = false; //boolean flag
+    private final Histogram electionTime = new Histogram(); //Per election, start to last report
     
+    //Totals of one level of hierarchical elections
+    private static final class Level implements Serializable {
+        private static final long serialVersionUID = 1L;
+        long reports = 0;
+        long sent = 0;
+        final Histogram time = new Histogram(); //Per election, start to last report of the level
+        final Histogram leaderTime = new Histogram(); //Of the level's own nodes only
+        final Histogram announcementTime = new Histogram();
+        final Histogram announcementHops = new Histogram();
+        final Histogram announcementDelay = new Histogram();
+    }
+    private final Map<String, Level> levels = new LinkedHashMap<String, Level>(); //In order of the first
+
+    private final ReportWriter detail; //Per-node lines, null when not wanted
+
     private final int MAX_REPORTS; //Max #reports
-    
+
     public ReportSet( String a, int maxReports ) {
+        this( a, maxReports, ReportWriter.configured() );
+    }
+    
+    public ReportSet( String a, int maxReports, ReportWriter detail ) {
         super( a ); //Calling super class constructor
-        reports = new HashSet<Report>(); //Instantiating the set reports
         MAX_REPORTS = maxReports; //Max #reports
+        this.detail = detail;
     }
 
     //adding into report
-    public void add( Report report ) {
-
-
-        if( available && reports.size() < MAX_REPORTS )
-            available = false;
-        
-        reports.add(report);
-        
-        if( reports.size() == MAX_REPORTS )
-            prepare();
+    public synchronized void add( Report report ) {
+        size++;
+
+        totalSentCount += report.sentMessageCount();
+        totalReceiveCount += report.receiveMessageCount();
+        maxQueueDepth = Math.max( maxQueueDepth, report.maxQueueDepth() );
+        totalDropped += report.droppedCount();
+
+        hopLatency().add( report.hopLatency() );
+        phaseTime().add( report.phaseTime() );
+        leaderTime().add( report.leaderTime() );
+        announcementTime().add( report.announcementTime() );
+        announcementHops().add( report.announcementHops() );
+        announcementDelay().add( report.announcementDelay() );
+
+        if( detail != null )
+            detail.write( report );
     }
 
+    //An election whose reports are all in took the given nanoseconds
+    public void election( long nanos ) {
+        electionTime.record( nanos );
+    }
+    
+    public Histogram electionTime() {
+        return electionTime;
+    }
+    
+    //A level of an election, whose reports are all in the given set, took the given nanoseconds
+    public synchronized void level( String name, ReportSet set, long nanos ) {
+        Level level = levels.get( name );
+        if( level == null )
+            levels.put( name, level = new Level() );
+        synchronized( set ) {
+            level.reports += set.size;
+            level.sent += set.totalSentCount;
+            level.leaderTime.add( set.leaderTime() );
+            level.announcementTime.add( set.announcementTime() );
+            level.announcementHops.add( set.announcementHops() );
+            level.announcementDelay.add( set.announcementDelay() );
+        }
+        level.time.record( nanos );
+    }
+    
     //Getting size of report
-    public int size() {
-        return reports.size();
+    public synchronized int size() {
+        return size;
+    }
+    
+    //Reports of nodes taking part in the election, the first level's for hierarchical ones
+    private long nodeReports() {
+        return levels.isEmpty() ? size : levels.values().iterator().next().reports;
+    }
+    
+    //Nodes per election
+    private int nodes() {
+        long elections = electionTime.count();
+        return (int)( elections > 1 ? nodeReports() / elections : nodeReports() );
     }
 
-    //Preparing report
-    private void prepare() {
-        
-        totalSentCount = 0; //Sent count
-        totalReceiveCount = 0; //Receive count
-
-        sentAverage = 0.0; //Sent average
-        receiveAverage = 0.0; //Receive average
+    //Reports awaited
+    public int expected() {
+        return MAX_REPORTS;
+    }
 
-        //Calculating total sent and receive count
-        for( Report r : reports ) {
-            totalSentCount += r.sentMessageCount();
-            totalReceiveCount += r.receiveMessageCount();
-        } 
+    //Every node has reported
+    public synchronized boolean available() {
+        return size >= MAX_REPORTS;
+    }
 
-        //Calculating avg sent and receive count
-        sentAverage = (double)totalSentCount / reports.size();
-        receiveAverage = (double)totalSentCount / reports.size();
+    //Sent average
+    public synchronized double sentAverage() {
+        long reports = nodeReports();
+        return reports == 0 ? 0.0 : (double)totalSentCount / reports;
+    }
 
-        //Setting available flag to true
-        available = true;
+    //Received average
+    public synchronized double receiveAverage() {
+        long reports = nodeReports();
+        return reports == 0 ? 0.0 : (double)totalReceiveCount / reports;
     }
-    //Getting available flag
-    public boolean available() {
-        return available;
+
+    //Finishing the per-node detail file
+    public void close() {
+        if( detail != null )
+            detail.close();
     }
 
     //Getting identification of the log
@@ -86,39 +154,77 @@ public class ReportSet extends Report implements Loggable {
 
     //Creating summary
     @Override
-    public String summary() {
-        if( !available )
-             prepare();
-        String summary = String.format( "Report for %s\n", author );
-        
-        summary += "===================================\n";
-                
-        summary += String.format( "Total Nodes: %d\n", reports.size() );
+    public synchronized String summary() {
+        StringBuilder summary = new StringBuilder( 1024 );
+
+        summary.append( String.format( "Report for %s\n", author ) );
+        summary.append( "===================================\n" );
+        summary.append( String.format( "Total Nodes: %d\n", nodes() ) );
+        if( electionTime.count() > 1 )
+            summary.append( String.format( "Elections: %d (%d reports)\n", 
+                    electionTime.count(), size ) );
+        if( detail != null )
+            summary.append( String.format( "Per-node reports: %s\n", detail.file() ) );
+        summary.append( "===================================\n" );
+
+        summary.append( String.format( "%d total sent messages from all nodes"
+                + "\n", totalSentCount ) );
+        summary.append( String.format( "%d total received messages from all nodes"
+                + "\n", totalReceiveCount ) );
+        summary.append( String.format( "%f sent messages average\n",
+                sentAverage() ) );
+        summary.append( String.format( "%f received messages average\n",
+                receiveAverage() ) );
+        summary.append( String.format( "%d max outbound queue depth\n",
+                maxQueueDepth ) );
+        if( totalDropped > 0 )
+            summary.append( String.format( "%d probes lost by injected faults\n",
+                    totalDropped ) );
+
+        summary.append( String.format( "Hop latency:          %s\n", hopLatency().summary() ) );
+        summary.append( String.format( "Phase time:           %s\n", phaseTime().summary() ) );
+        if( levels.isEmpty() ) //Else per level below, the levels' nodes overlap
+            leadership( summary, "", leaderTime(), announcementTime(), announcementHops(),
+                    announcementDelay() );
+        if( electionTime.count() > 0 )
+            summary.append( String.format( "Election time:        %s\n",
+                    electionTime.summary( 1000000.0, "ms" ) ) );
         
-        for( Report r : reports ) {
-            summary += r.summary();
+        int n = 0;
+        long elections = Math.max( 1, electionTime.count() );
+        for( Map.Entry<String, Level> e : levels.entrySet() ) {
+            Level level = e.getValue();
+            summary.append( String.format( "Level %d, %s: %d nodes, %d messages per "
+                    + "election, %s\n", ++n, e.getKey(), level.reports / elections, 
+                    level.sent / elections, level.time.summary( 1000000.0, "ms" ) ) );
+            leadership( summary, "  ", level.leaderTime, level.announcementTime,
+                    level.announcementHops, level.announcementDelay );
         }
-        
-        summary += "===================================\n";
-        
-        summary += String.format( "%d total sent messages from all nodes"
-                + "\n", totalSentCount );
-        summary += String.format( "%d total received messages from all nodes"
-                + "\n", totalReceiveCount );
-        summary += String.format( "%f sent messages average\n", 
-                (double)totalSentCount/reports.size() );
-        summary += String.format( "%f received messages average\n",
-                (double)totalReceiveCount/reports.size() );
-        
-        return summary;
 
+        return summary.toString();
     }
-    
+
+    //Lines on the leader and its announcement, those with anything recorded for a level
+    private void leadership( StringBuilder summary, String indent, Histogram leader,
+            Histogram announcement, Histogram hops, Histogram delay ) {
+        boolean all = indent.isEmpty();
+        if( all || leader.count() > 0 )
+            summary.append( String.format( "%sTime to leader:       %s\n", indent,
+                    leader.summary() ) );
+        if( all || announcement.count() > 0 )
+            summary.append( String.format( "%sTime to announcement: %s\n", indent,
+                    announcement.summary() ) );
+        if( all || hops.count() > 0 )
+            summary.append( String.format( "%sAnnouncement hops:    %s\n", indent,
+                    hops.summary( 1, "hops" ) ) );
+        if( all || delay.count() > 0 )
+            summary.append( String.format( "%sAnnouncement delay:   %s\n", indent,
+                    delay.summary() ) );
+    }
+
     @Override
-    public String raw() {
-        if( !available )
-             prepare();
-        return String.format( "%s %d %f %f\n", author, reports.size(),
-                sentAverage, receiveAverage );
-    } 
+    public synchronized String raw() {
+        return String.format( "%s %d %f %f\n", author, nodes(),
+                sentAverage(), receiveAverage() );
+    }
 }
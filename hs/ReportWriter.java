@@ -0,0 +1,117 @@
+
+package hs;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams one line per node report to a file as reports arrive, as CSV
+ * when the file name ends in .csv and as JSON lines otherwise.
+ *
+ * Nothing is held back but the writer's buffer, so the Ringer's heap does
+ * not grow with the ring. A failed write is logged once and the rest of
+ * the detail is dropped; the aggregate summary is unaffected.
+ */
+public class ReportWriter implements Loggable {
+
+    //Per-node report file set with -Dhs.report.detail, none by default
+    public static final String PROPERTY = "hs.report.detail";
+
+    private static final String CSV_HEADER = "node,epoch,sent,received,max_queue_depth,dropped,"
+            + "hops,hop_p50_ns,hop_p99_ns,hop_max_ns,phases,phase_p50_ns,phase_max_ns,"
+            + "leader_ns,announcement_ns,announcement_hops,announcement_delay_ns\n";
+
+    private final String file;
+    private final boolean csv;
+    private Writer out; //null once closed or failed
+
+    public ReportWriter( String file ) {
+        this.file = file;
+        csv = file.toLowerCase().endsWith( ".csv" );
+        try {
+            out = new BufferedWriter( new FileWriter( file ), 64 * 1024 );
+            if( csv )
+                out.write( CSV_HEADER );
+        } catch( IOException ioe ) {
+            fail( ioe );
+        } catch( SecurityException se ) { //Denied by the security manager's policy
+            fail( se );
+        }
+    }
+
+    //Writer for the configured file, null if none is configured
+    public static ReportWriter configured() {
+        String file = System.getProperty( PROPERTY );
+        return ( file == null || file.isEmpty() ) ? null : new ReportWriter( file );
+    }
+
+    public String file() {
+        return file;
+    }
+
+    //Writing one node's line
+    public synchronized void write( Report r ) {
+        if( out == null )
+            return;
+
+        Histogram hops = r.hopLatency();
+        Histogram phases = r.phaseTime();
+        String line;
+        if( csv )
+            line = String.format( "%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d\n",
+                    r.author(), r.epoch(), r.sentMessageCount(), r.receiveMessageCount(),
+                    r.maxQueueDepth(), r.droppedCount(), hops.count(), hops.percentile( 50 ),
+                    hops.percentile( 99 ), hops.max(), phases.count(),
+                    phases.percentile( 50 ), phases.max(), r.leaderTime().max(),
+                    r.announcementTime().max(), r.announcementHops().max(),
+                    r.announcementDelay().max() );
+        else
+            line = String.format( "{\"node\":\"%s\",\"epoch\":%d,\"sent\":%d,\"received\":%d,"
+                    + "\"max_queue_depth\":%d,\"dropped\":%d,\"hops\":%d,\"hop_p50_ns\":%d,"
+                    + "\"hop_p99_ns\":%d,\"hop_max_ns\":%d,\"phases\":%d,"
+                    + "\"phase_p50_ns\":%d,\"phase_max_ns\":%d,\"leader_ns\":%d,"
+                    + "\"announcement_ns\":%d,\"announcement_hops\":%d,"
+                    + "\"announcement_delay_ns\":%d}\n",
+                    r.author(), r.epoch(), r.sentMessageCount(), r.receiveMessageCount(),
+                    r.maxQueueDepth(), r.droppedCount(), hops.count(), hops.percentile( 50 ),
+                    hops.percentile( 99 ), hops.max(), phases.count(),
+                    phases.percentile( 50 ), phases.max(), r.leaderTime().max(),
+                    r.announcementTime().max(), r.announcementHops().max(),
+                    r.announcementDelay().max() );
+        try {
+            out.write( line );
+        } catch( IOException ioe ) {
+            fail( ioe );
+        }
+    }
+
+    //Flushing and closing the file
+    public synchronized void close() {
+        if( out == null )
+            return;
+        try {
+            out.close();
+        } catch( IOException ioe ) {
+            Logger.error( "Failed to close " + file + ": " + ioe, this );
+        }
+        out = null;
+    }
+
+    private void fail( Exception e ) {
+        Logger.error( "Dropping per-node reports, cannot write " + file + ": " + e, this );
+        if( out != null ) {
+            try {
+                out.close();
+            } catch( IOException ignored ) {
+            }
+        }
+        out = null;
+    }
+
+    @Override
+    public String logIdent() {
+        return "ReportWriter";
+    }
+}
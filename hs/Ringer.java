@@ -8,9 +8,23 @@ import java.net.MalformedURLException;
 import java.rmi.*;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.Calendar;
-import java.util.LinkedList;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  *  The Ringer exports a remote method that nodes can use 
@@ -19,33 +33,142 @@ import java.util.Random;
  *  The Ringer joins the nodes together and then chooses a random
  *  node to begin the leader election process
  * 
+ *  Registrations are accepted concurrently into a fixed array of slots, the
+ *  slot being the node's position in the ring. Once every slot is filled
+ *  the ring is wired in one parallel pass, with a single wire() call per
+ *  node. A node acknowledges with ready() once it is wired and its loop
+ *  runs, and the election is activated as soon as every node has done so.
+ * 
+ *  A standalone Ringer is exported through RMI (see main()); a local one
+ *  serves the in-memory nodes of a {@link LocalCluster} and, instead of
+ *  exiting, releases {@link #awaitReport()} once every node has reported.
+ * 
+ *  With heartbeats on (-Dhs.heartbeat) the Ringer and the nodes stay up
+ *  after the election. When a node reports the leader silent, the Ringer
+ *  pings every node, wires the ring again without the ones that are down
+ *  and activates the election of the next epoch. Failover time is the
+ *  silence the first node saw plus the time until the new leader's
+ *  announcement went around.
+ * 
+ *  leader() tells who won the latest election, from memory; see
+ *  {@link LeaderCache} for clients that look it up on every request.
+ * 
+ *  With -Dhs.trials (and -Dhs.warmup) the Ringer runs that many elections
+ *  back to back on the same ring instead of one, each in an epoch of its
+ *  own: once every node has reported on an epoch, a random node is asked
+ *  to elect in the next. The nodes stay up until the last one. Every epoch
+ *  is summed up in a line of the log; the warm-up epochs are left out of
+ *  the summary, which merges the reports of all the others.
+ * 
+ *  With -Dhs.shards the ring is cut into that many sub-rings, and an
+ *  election takes three epochs: every sub-ring elects a leader, all at
+ *  once; the sub-ring leaders are wired into a ring of their own and
+ *  elect one among them; back in their sub-rings they announce it there.
+ *  Messages and time are reported per level.
+ * 
+ *  Unless -Dhs.jmx=false the Ringer registers an MXBean (see
+ *  {@link RingerMonitorMXBean}) showing registrations and the progress
+ *  of the current election while it runs.
+ * 
  * @author Surya Selvaraj
  *
  */
 
 
-public class Ringer extends UnicastRemoteObject implements Remote, Loggable, 
-        Reachable, RingerService {
+public class Ringer implements Remote, Loggable, Reachable, RingerService {
     
     private static Ringer ringer; //Ringer object
 
     public final int MAX_NODES; //Max #nodes
 
-    private LinkedList<NodeService> ring; //LinkedList to hold the ring nodes
+    private final AtomicReferenceArray<NodeService> ring; //Registered nodes (NodeRefs) by ring position
+    private final AtomicInteger claimed = new AtomicInteger(); //Slots handed out
+    private final AtomicInteger filled = new AtomicInteger(); //Slots written
+    
+    private final long[] pids; //Pid of each registered node, for logging
+    private final ConcurrentHashMap<Long, Boolean> registered = 
+            new ConcurrentHashMap<Long, Boolean>(); //Pids seen, registrations may be retried
+    
+    private final Set<Long> ready = Collections.newSetFromMap( 
+            new ConcurrentHashMap<Long, Boolean>() ); //Nodes that acknowledged readiness
+    private final CountDownLatch allReady; //Released when every node is ready
+    
+    //Milliseconds to wait for readiness before activating anyway, set with -Dhs.ready.timeout
+    private static final long READY_TIMEOUT = Long.getLong( "hs.ready.timeout", 30000 );
+    
+    //Threads wiring the ring, set with -Dhs.wiring.threads
+    private static final int WIRING_THREADS = Integer.getInteger( "hs.wiring.threads", 32 );
+    
+    //Milliseconds between leader heartbeats (0, the default, for none) and of 
+    //silence before the leader is suspected, set with -Dhs.heartbeat and -Dhs.heartbeat.timeout
+    private static final long HEARTBEAT = Long.getLong( "hs.heartbeat", 0 );
+    private static final long HEARTBEAT_TIMEOUT = Long.getLong( "hs.heartbeat.timeout", 3 * HEARTBEAT );
     
-    private ReportSet reportSet;
+    //How nodes announce the leader, set with -Dhs.announce
+    private static final Announcement ANNOUNCEMENT = Announcement.configured();
+    
+    //Measured elections, and elections run before them and left out of the 
+    //summary, set with -Dhs.trials (default 1) and -Dhs.warmup (default 0)
+    private static final int TRIALS = Math.max( 1, Integer.getInteger( "hs.trials", 1 ) );
+    private static final int WARMUP = Math.max( 0, Integer.getInteger( "hs.warmup", 0 ) );
+    
+    //Sub-rings to elect in first, their leaders then electing among themselves, 
+    //set with -Dhs.shards (default 1, a flat ring). Not with heartbeats
+    private static final int SHARDS = Math.max( 1, Integer.getInteger( "hs.shards", 1 ) );
+    private static final String[] LEVELS = { "ring", "sub-rings", "sub-ring leaders", "announcement" };
+    
+    //Nodes stay up between elections, until the Ringer shuts them down
+    private static final boolean PERSISTENT = TRIALS + WARMUP > 1 || SHARDS > 1;
+    
+    private final boolean[] down; //Slots of nodes found dead, guarded by this
+    private int epoch = 0; //Current election, guarded by this
+    private int leaderEpoch = -1; //Latest epoch with an announced leader, guarded by this
+    private long leaderPid; //Its leader, guarded by this
+    private NodeService leaderNode; //Reference to it, guarded by this
+    
+    //Milliseconds leader() answers hold for: until a silent leader would be suspected, or -Dhs.lease
+    private static final long LEASE = HEARTBEAT > 0 ? HEARTBEAT_TIMEOUT : Leadership.LEASE;
+    private boolean repairing = false; //A repair is under way, guarded by this
+    private long lostAt; //System.nanoTime() the leader was reported lost
+    private long silence; //Milliseconds the first node had gone without heartbeats
+    private int failoverEpoch = -1; //Latest epoch started by a repair, guarded by this
+    private final Histogram failover = new Histogram(); //Detection plus re-election, in ns
+    
+    private ReportSet reportSet; //Reports of the measured elections
+    private ReportSet epochReports; //Reports of the current epoch, guarded by this
+    private long epochStarted; //System.nanoTime() the current epoch's election started
+    private int trials = 0; //Elections fully reported, warm-up included, guarded by this
+    private long trialStarted; //System.nanoTime() the current election started, guarded by this
+    
+    private int[][] shards; //Slots of every sub-ring, null on a flat ring
+    private int level = 0; //Level of the current epoch in LEVELS, guarded by this
+    private final List<Integer> winners = new ArrayList<Integer>(); //Slots of the sub-ring leaders, guarded by this
+    
+    private final boolean standalone; //Own JVM, exported through RMI
+    
+    private final CountDownLatch reported = new CountDownLatch( 1 ); //Released once the report is out
 
    // private boolean started = false;
     
     private final String SERVICE_NAME = "Ringer"; //This is the Ringer
     
-    private static final String EXPORT_FILE = "/Users/SuryaSelvaraj/Documents/Hirschberg-Sinclair-master/stats.txt"; //The file to write the stats
+    private static final String EXPORT_FILE = "stats.txt"; //The file to write the stats, in the working directory
+    
+    public Ringer( int maxNodes ) { //Constructor
+        this( maxNodes, true );
+    }
     
-    public Ringer( int maxNodes ) throws RemoteException { //Constructor
-        super(); //Super Class Constructor is executed first
-        ring = new LinkedList<NodeService>(); //The LinkedList for the ring nodes is instantiated
-        reportSet = new ReportSet( SERVICE_NAME, maxNodes ); //ReportSet is instantiated
+    Ringer( int maxNodes, boolean standalone ) {
+        this.standalone = standalone;
+        ring = new AtomicReferenceArray<NodeService>( maxNodes ); //One slot per ring position
+        pids = new long[maxNodes];
+        down = new boolean[maxNodes];
+        allReady = new CountDownLatch( maxNodes );
+        reportSet = new ReportSet( SERVICE_NAME, maxNodes * TRIALS ); //ReportSet is instantiated
         MAX_NODES = maxNodes; //Storing max #nodes
+        
+        if( Monitoring.enabled( false ) )
+            Monitoring.register( new Monitor(), SERVICE_NAME, SERVICE_NAME, this );
     }
     
     @Override
@@ -58,69 +181,391 @@ public class Ringer extends UnicastRemoteObject implements Remote, Loggable,
         return logIdent();
     }
 
-    //Register node to RMI registry. Needs to be synchronized to maintain transactional properties
+    //Register node to the ring. Any number of registrations may run at once
     @Override
-    public synchronized void registerNode( NodeService node )
+    public void registerNode( NodeService node )
             throws RemoteException,
             NotBoundException, UnknownHostException, MalformedURLException
             
     {
+        node = NodeRef.of( node ); //pid and endpoint fetched once, for us and the neighbours
+        long pid = node.pid();
         
-        if( ring.size() < MAX_NODES ) { //Check if ring size < Max #nodes
-
-            node.left( ring.peekLast() ); //Setting the left pointer of the current node
-            node.right( ring.peekFirst() ); //Setting the right pointer of the current node
-            
-            ring.add( node ); //Adding the current node to the ring LinkedList
+        if( registered.putIfAbsent( pid, Boolean.TRUE ) != null ) { //A retry of a registration that made it
+            Logger.warn( "Node-%x is already registered", this, pid );
+            return;
+        }
+        
+        int slot = claimed.getAndIncrement(); //Claiming a position in the ring
+        
+        if( slot >= MAX_NODES ) { //Ring is full already
+            Logger.warn( "Node-%x arrived after the ring was "
+                    + "full, ignoring it", this, pid );
+            return;
+        }
+        
+        pids[slot] = pid;
+        ring.set( slot, node );
+        int size = filled.incrementAndGet();
 
-            //Updating the log with the information of the node registered, #spots left, current size of ring
-            Logger.info( String.format( "Node-%x registered with registry "
-                    + "(%d spots left, current ring size: %d)", 
-                    node.pid(), MAX_NODES - ring.size(), ring.size() ), this );
-            
-        } 
+        //Updating the log with the information of the node registered, #spots left, current size of ring
+        Logger.info( String.format( "Node-%x registered with registry "
+                + "(%d spots left, current ring size: %d)", 
+                pids[slot], MAX_NODES - size, size ), this );
         
-        if( ring.size() == MAX_NODES ) { //Completed the construction of ring topology
-            init();
+        if( size == MAX_NODES ) { //Completed the construction of ring topology
+            new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        shards = shard( live() );
+                        if( shards != null )
+                            wire( shards );
+                        else
+                            wire( live() );
+                        init();
+                    } catch( RemoteException re ) {
+                        Logger.error( "Failed to start the election: " + re, 
+                                Ringer.this );
+                    }
+                }
+            }, "Ringer-wiring" ).start();
         }
         
     }
+    
+    //Slots of the nodes not found down, in ring order
+    private synchronized int[] live() {
+        int count = 0;
+        for( int i = 0; i < MAX_NODES; i++ )
+            if( !down[i] )
+                count++;
+        
+        int[] slots = new int[count];
+        for( int i = 0, j = 0; i < MAX_NODES; i++ )
+            if( !down[i] )
+                slots[j++] = i;
+        return slots;
+    }
+    
+    //Cutting the slots into sub-rings of nearly equal size, null for a flat ring
+    private int[][] shard( int[] slots ) {
+        int count = Math.min( SHARDS, slots.length / 2 ); //Two nodes at least in each
+        if( count <= 1 )
+            return null;
+        if( HEARTBEAT > 0 ) {
+            Logger.warn( "Sub-rings are not kept up with heartbeats, electing on one ring", this );
+            return null;
+        }
+        
+        int[][] rings = new int[count][];
+        for( int s = 0, from = 0; s < count; s++ ) {
+            int to = (int)( (long)slots.length * ( s + 1 ) / count );
+            rings[s] = Arrays.copyOfRange( slots, from, to );
+            from = to;
+        }
+        return rings;
+    }
+    
+    //Handing every node in the rings of slots its two neighbours, one call per node in parallel
+    private void wire( int[]... rings ) throws RemoteException {
+        int size = 0;
+        for( int[] slots : rings )
+            size += slots.length;
+        
+        List<Callable<Void>> calls = new ArrayList<Callable<Void>>( size );
+        for( int[] slots : rings )
+            for( int i = 0; i < slots.length; i++ )
+                calls.add( wiring( slots, i ) );
+        
+        long start = System.nanoTime();
+        invokeAll( calls, "wire" );
+        
+        Logger.info( "Wired %d nodes into %d ring(s) in %d ms", this, size, rings.length, 
+                ( System.nanoTime() - start ) / 1000000 );
+    }
+    
+    //Call wiring the node at index i of the slots into their ring
+    private Callable<Void> wiring( int[] slots, int i ) {
+        int size = slots.length;
+        final NodeService node = ring.get( slots[i] );
+        final Wiring wiring = new Wiring( 
+                ring.get( slots[( i + size - 1 ) % size] ), 
+                ring.get( slots[( i + 1 ) % size] ), i, size,
+                HEARTBEAT, HEARTBEAT_TIMEOUT, ANNOUNCEMENT, 
+                ANNOUNCEMENT == Announcement.TREE ? skips( slots, i ) : null, 
+                PERSISTENT );
+        
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws RemoteException {
+                node.wire( wiring );
+                return null;
+            }
+        };
+    }
+    
+    //Skip pointers of the node at index i of the slots: 1, 2, 4... positions to the right
+    private NodeService[] skips( int[] slots, int i ) {
+        int size = slots.length;
+        int count = 0;
+        for( long d = 1; d < size; d <<= 1 )
+            count++;
+        
+        NodeService[] skips = new NodeService[count];
+        for( int k = 0; k < count; k++ )
+            skips[k] = ring.get( slots[(int)( ( i + ( 1L << k ) ) % size )] );
+        return skips;
+    }
+    
+    //Making the calls from a pool of wiring threads, failing on the first that fails
+    private void invokeAll( List<Callable<Void>> calls, String what ) throws RemoteException {
+        ExecutorService pool = Executors.newFixedThreadPool( 
+                Math.max( 1, Math.min( WIRING_THREADS, calls.size() ) ) );
+        try {
+            for( Future<Void> f : pool.invokeAll( calls ) )
+                f.get();
+        } catch( InterruptedException ie ) {
+            throw new RemoteException( "Interrupted while trying to " + what, ie );
+        } catch( ExecutionException ee ) {
+            throw new RemoteException( "Failed to " + what + " a node", ee.getCause() );
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-    //Randomly choose a node for activation of the leader election process
-    private void init() throws RemoteException {
+    //A node is wired and its loop runs
+    @Override
+    public void ready( long pid ) throws RemoteException {
+        if( ready.add( pid ) )
+            allReady.countDown();
+    }
+    
+    //Waiting for every node to be ready, reporting the ones that aren't
+    private void awaitReady() {
+        long start = System.nanoTime();
+        boolean all = false;
         try {
-            Thread.sleep( 10000 );
+            all = allReady.await( READY_TIMEOUT, TimeUnit.MILLISECONDS );
         } catch( InterruptedException ie ) {
-            Logger.error( "init() sleep messed up: " + ie, this );
+            Logger.error( "Interrupted while waiting for nodes: " + ie, this );
         }
         
-        Random rand = new Random();
-        rand.setSeed( Calendar.getInstance().getTimeInMillis() );
+        if( all ) {
+            Logger.info( "All %d nodes ready after %d ms", this, MAX_NODES, 
+                    ( System.nanoTime() - start ) / 1000000 );
+            return;
+        }
         
-        NodeService n = ring.get( rand.nextInt( ring.size() ) );
-        //NodeService n = ring.peekFirst();
-        n.activate();
-        //started = true;
+        StringBuilder stragglers = new StringBuilder();
+        int count = 0;
+        for( int i = 0; i < MAX_NODES; i++ ) {
+            if( ready.contains( pids[i] ) )
+                continue;
+            if( count++ < 20 )
+                stragglers.append( String.format( " Node-%x(#%d)", pids[i], i ) );
+        }
+        if( count > 20 )
+            stragglers.append( " ..." );
+        
+        Logger.warn( String.format( "%d of %d nodes not ready after %d ms, "
+                + "activating anyway. Stragglers:%s", count, MAX_NODES, 
+                READY_TIMEOUT, stragglers ), this );
+    }
+
+    //Starting the first election once every node is ready
+    private void init() throws RemoteException {
+        awaitReady();
+        start( 0 );
+    }
+    
+    //Randomly choosing a node of the ring, or of every sub-ring, to start the election of epoch e
+    private void start( final int e ) throws RemoteException {
+        int[][] rings = shards != null ? shards : new int[][] { live() };
+        int members = 0;
+        for( int[] slots : rings )
+            members += slots.length;
+        
+        synchronized( this ) {
+            begin( e, members, shards != null ? 1 : 0 );
+            trialStarted = epochStarted;
+            winners.clear();
+        }
+        
+        List<Callable<Void>> calls = new ArrayList<Callable<Void>>( rings.length );
+        NodeService n = null;
+        for( int[] slots : rings ) {
+            final NodeService chosen = n = ring.get( 
+                    slots[ThreadLocalRandom.current().nextInt( slots.length )] );
+            calls.add( new Callable<Void>() {
+                @Override
+                public Void call() throws RemoteException {
+                    if( e == 0 )
+                        chosen.activate();
+                    else
+                        chosen.elect( e );
+                    return null;
+                }
+            });
+        }
+        invokeAll( calls, "activate" );
 
         //Update log with information on the node chosen for activation
-        Logger.info( String.format( "Node-%x has been chosen for "
-                + "activation", n.pid() ), this );
+        if( rings.length == 1 )
+            Logger.info( "Node-%x has been chosen for "
+                    + "activation", this, n.pid() );
+        else
+            Logger.info( "Electing in %d sub-rings of %d to %d nodes", this, rings.length, 
+                    rings[0].length, rings[rings.length - 1].length );
+    }
+    
+    //Wiring the sub-ring leaders into a ring of their own and electing among them in epoch e
+    private void electLeaders( int e ) throws RemoteException {
+        int[] slots;
+        synchronized( this ) {
+            slots = new int[winners.size()];
+            for( int i = 0; i < slots.length; i++ )
+                slots[i] = winners.get( i );
+        }
+        Arrays.sort( slots ); //In ring order
+        
+        wire( slots );
+        begin( e, slots.length, 2 );
+        ring.get( slots[ThreadLocalRandom.current().nextInt( slots.length )] ).elect( e );
+    }
+    
+    //Wiring the sub-ring leaders back into their sub-rings, to announce the leader there in epoch e
+    private void announceLeader( int e ) throws RemoteException {
+        Set<Integer> leaders;
+        final Leadership leadership;
+        synchronized( this ) {
+            leaders = new HashSet<Integer>( winners );
+            leadership = new Leadership( leaderPid, e, leaderNode, 0 );
+        }
+        
+        List<Callable<Void>> wiring = new ArrayList<Callable<Void>>( leaders.size() );
+        List<Callable<Void>> follow = new ArrayList<Callable<Void>>( leaders.size() );
+        int members = 0;
+        for( int[] slots : shards ) {
+            members += slots.length;
+            for( int i = 0; i < slots.length; i++ ) {
+                if( !leaders.contains( slots[i] ) )
+                    continue;
+                final NodeService node = ring.get( slots[i] );
+                wiring.add( wiring( slots, i ) );
+                follow.add( new Callable<Void>() {
+                    @Override
+                    public Void call() throws RemoteException {
+                        node.follow( leadership );
+                        return null;
+                    }
+                });
+            }
+        }
+        
+        invokeAll( wiring, "wire" );
+        begin( e, members, 3 );
+        invokeAll( follow, "hand the leader to" );
+    }
+
+    //Starting to collect the reports of an epoch's election among the given number of nodes
+    private synchronized void begin( int e, int members, int level ) {
+        epoch = e;
+        this.level = level;
+        epochReports = new ReportSet( String.format( "%s epoch %d", SERVICE_NAME, e ), 
+                members, null );
+        epochStarted = System.nanoTime();
+    }
+    
+    //Whether the current epoch is one of the measured trials
+    private boolean measured() {
+        return trials >= WARMUP && trials < WARMUP + TRIALS;
     }
 
     //Checking for preparing report
     @Override
-    public void report( Report report ) throws RemoteException {
-        reportSet.add( report );
+    public synchronized void report( Report report ) throws RemoteException {
+        if( report.epoch() != epoch || epochReports == null ) { //Election given up on
+            Logger.debug( "Dropping a report on epoch %d", this, report.epoch() );
+            return;
+        }
         
-        if( reportSet.size() == MAX_NODES && reportSet.available() ) {
+        epochReports.add( report );
+        if( measured() )
+            reportSet.add( report );
+        
+        if( epochReports.available() ) {
+            final ReportSet done = epochReports;
+            final int e = epoch;
+            final long now = System.nanoTime();
+            final long nanos = now - epochStarted;
+            final long total = now - trialStarted;
+            epochReports = null;
+            
             new Thread( new Runnable() {
                 @Override
                 public void run() {
-                    prepareReport();
+                    reported( e, done, nanos, total );
                 }
-            }).start();
+            }, "Ringer-epoch" ).start();
         }
     }
+    
+    //Every node reported on the epoch: logging it, then going on to the next level, 
+    //the next trial or the report. Total is the time since the election started
+    private void reported( int e, ReportSet done, long nanos, long total ) {
+        boolean last = false;
+        int next; //Level of the next epoch, 0 once the election is over
+        synchronized( this ) {
+            if( trials >= WARMUP + TRIALS ) { //A failover after the trials
+                log( e, done, nanos, "" );
+                return;
+            }
+            
+            String note = level > 0 ? LEVELS[level] : "";
+            if( level == 1 )
+                note += String.format( ", %d leaders", winners.size() );
+            if( trials < WARMUP )
+                note += note.isEmpty() ? "warm-up" : ", warm-up";
+            log( e, done, nanos, note.isEmpty() ? "" : " (" + note + ")" );
+            
+            if( level > 0 && measured() )
+                reportSet.level( LEVELS[level], done, nanos );
+            next = level == 1 || level == 2 ? level + 1 : 0;
+            if( next == 0 ) {
+                if( measured() )
+                    reportSet.election( total );
+                last = ++trials == WARMUP + TRIALS;
+            }
+        }
+        
+        if( last ) {
+            prepareReport();
+            return;
+        }
+        
+        try {
+            if( next == 2 )
+                electLeaders( e + 1 );
+            else if( next == 3 )
+                announceLeader( e + 1 );
+            else
+                start( e + 1 );
+        } catch( RemoteException re ) {
+            Logger.error( "Failed to start the next election: " + re, this );
+        }
+    }
+    
+    //One line for the epoch's election
+    private void log( int e, ReportSet done, long nanos, String note ) {
+        String leader = leaderEpoch == e ? String.format( ", leader Node-%x", leaderPid ) : "";
+        Logger.info( String.format( "Epoch %d%s: %d nodes in %.3f ms%s, "
+                + "%.1f messages per node, hop p99 %.1f us, announcement "
+                + "p99 %.1f us", e, note, done.size(), nanos / 1e6, 
+                leader, done.sentAverage(), 
+                done.hopLatency().percentile( 99 ) / 1e3, 
+                done.announcementTime().percentile( 99 ) / 1e3 ), this );
+    }
 
     //Preparing Report, printing the report's content and updating on the file
     private void prepareReport() {
@@ -129,9 +574,273 @@ public class Ringer extends UnicastRemoteObject implements Remote, Loggable,
         System.out.println( reportSet.summary() );
 
         reportSet.export( String.format( "%s", EXPORT_FILE ) );
+        reportSet.close(); //Per-node detail is complete
+
+        reported.countDown();
+        
+        //Done, so initiating shutdown. With heartbeats there may be failovers to come
+        if( HEARTBEAT > 0 )
+            return;
+        if( PERSISTENT )
+            release();
+        if( standalone )
+            shutdown();
+    }
+    
+    //Shutting down the nodes, which stayed up for the elections
+    private void release() {
+        int[] slots = live();
+        List<Callable<Void>> calls = new ArrayList<Callable<Void>>( slots.length );
+        for( int slot : slots ) {
+            final NodeService node = ring.get( slot );
+            calls.add( new Callable<Void>() {
+                @Override
+                public Void call() throws RemoteException {
+                    node.shutdown();
+                    return null;
+                }
+            });
+        }
+        try {
+            invokeAll( calls, "shut down" );
+        } catch( RemoteException re ) {
+            Logger.error( "Failed to shut the nodes down: " + re, this );
+        }
+    }
+    
+    //Waiting until every node has reported and the report was released
+    public void awaitReport() throws InterruptedException {
+        reported.await();
+    }
+    
+    public ReportSet reportSet() {
+        return reportSet;
+    }
+    
+    //A node suspects the leader of the epoch, the first suspicion starts a repair
+    @Override
+    public synchronized void leaderLost( long pid, int epoch, long leaderPid, 
+            long silentMillis ) throws RemoteException {
+        if( epoch != this.epoch || repairing ) //Known already, or handled
+            return;
+        
+        repairing = true;
+        lostAt = System.nanoTime();
+        silence = silentMillis;
+        Logger.warn( "Node-%x lost its leader Node-%x of epoch %d", this, pid, leaderPid, epoch );
+        
+        new Thread( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    repair();
+                } catch( RemoteException re ) {
+                    Logger.error( "Failed to repair the ring: " + re, Ringer.this );
+                    synchronized( Ringer.this ) {
+                        repairing = false; //The next suspicion tries again
+                    }
+                }
+            }
+        }, "Ringer-repair" ).start();
+    }
+    
+    //Dropping the nodes that are down, wiring the rest and electing again
+    private void repair() throws RemoteException {
+        long start = System.nanoTime();
+        
+        int[] slots = live();
+        List<Callable<Void>> calls = new ArrayList<Callable<Void>>( slots.length );
+        final boolean[] failed = new boolean[slots.length];
+        for( int i = 0; i < slots.length; i++ ) {
+            final int index = i;
+            final NodeService node = ring.get( slots[i] );
+            calls.add( new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        node.ping();
+                    } catch( RemoteException re ) {
+                        failed[index] = true;
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll( calls, "ping" );
+        
+        int lost = 0;
+        synchronized( this ) {
+            for( int i = 0; i < slots.length; i++ ) {
+                if( failed[i] ) {
+                    down[slots[i]] = true;
+                    lost++;
+                    Logger.warn( "Node-%x is down", this, pids[slots[i]] );
+                }
+            }
+        }
+        
+        slots = live();
+        if( slots.length == 0 )
+            throw new RemoteException( "Every node is down" );
+        wire( slots );
+        
+        NodeService n = ring.get( slots[ThreadLocalRandom.current().nextInt( slots.length )] );
+        int next;
+        synchronized( this ) {
+            next = epoch + 1;
+            begin( next, slots.length, 0 );
+            failoverEpoch = next;
+            repairing = false;
+        }
+        Logger.info( String.format( "Dropped %d node(s), electing among %d for "
+                + "epoch %d after %d ms", lost, slots.length, next, 
+                ( System.nanoTime() - start ) / 1000000 ), this );
+        n.elect( next );
+    }
+    
+    //The leader's announcement went around the ring
+    @Override
+    public synchronized void elected( long pid, int epoch ) throws RemoteException {
+        if( epoch != this.epoch )
+            return;
+        if( level == 1 ) { //A sub-ring's leader, the sub-ring leaders elect among themselves next
+            winners.add( slot( pid ) );
+            return;
+        }
+        if( epoch <= leaderEpoch )
+            return;
+        
+        leaderEpoch = epoch;
+        leaderPid = pid;
+        leaderNode = ring.get( slot( pid ) );
+        
+        if( epoch == failoverEpoch ) {
+            long reelection = System.nanoTime() - lostAt;
+            long total = TimeUnit.MILLISECONDS.toNanos( silence ) + reelection;
+            failover.record( total );
+            Logger.info( String.format( "Node-%x leads epoch %d, failover took "
+                    + "%d ms (%d ms detection + %d ms re-election)", pid, epoch, 
+                    TimeUnit.NANOSECONDS.toMillis( total ), silence, 
+                    TimeUnit.NANOSECONDS.toMillis( reelection ) ), this );
+            Logger.info( "Failover: %s", this, failover.summary() );
+        }
+        notifyAll();
+    }
+    
+    //Slot of the node with the pid
+    private int slot( long pid ) {
+        for( int i = 0; i < MAX_NODES; i++ )
+            if( pids[i] == pid )
+                return i;
+        throw new IllegalArgumentException( String.format( "Node-%x is not in the ring", pid ) );
+    }
+    
+    //Waiting until a leader of the epoch (or a later one) is announced
+    public synchronized boolean awaitLeader( int epoch, long timeoutMillis ) 
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining;
+        while( leaderEpoch < epoch ) {
+            if( (remaining = deadline - System.currentTimeMillis()) <= 0 )
+                return false;
+            wait( remaining );
+        }
+        return true;
+    }
+    
+    //The latest leader, with no lease while the next election is under way
+    @Override
+    public synchronized Leadership leader() {
+        if( leaderEpoch < 0 )
+            return null;
+        boolean electing = repairing || leaderEpoch != epoch;
+        return new Leadership( leaderPid, leaderEpoch, leaderNode, electing ? 0 : LEASE );
+    }
+    
+    //Current election epoch
+    public synchronized int epoch() {
+        return epoch;
+    }
+    
+    public synchronized long leaderPid() {
+        return leaderPid;
+    }
+    
+    public Histogram failover() {
+        return failover;
+    }
 
-        //Done, so initiating shutdown
-        shutdown();
+    //The Ringer as seen over JMX
+    private final class Monitor implements RingerMonitorMXBean {
+        
+        @Override
+        public int getRegistered() { return filled.get(); }
+        @Override
+        public int getRingSize() { return MAX_NODES; }
+        @Override
+        public int getReady() { return ready.size(); }
+        @Override
+        public int getLiveNodes() { return live().length; }
+        @Override
+        public int getEpoch() { return epoch(); }
+        @Override
+        public String getLevel() { 
+            synchronized( Ringer.this ) { return LEVELS[level]; } 
+        }
+        @Override
+        public int getElectionsDone() { 
+            synchronized( Ringer.this ) { return trials; } 
+        }
+        @Override
+        public int getElections() { return WARMUP + TRIALS; }
+        
+        @Override
+        public int getReportsReceived() {
+            synchronized( Ringer.this ) {
+                return epochReports != null ? epochReports.size() : 0;
+            }
+        }
+        
+        @Override
+        public int getReportsExpected() {
+            synchronized( Ringer.this ) {
+                return epochReports != null ? epochReports.expected() : 0;
+            }
+        }
+        
+        //Between epochs, every report of the last one is in
+        @Override
+        public double getProgress() {
+            synchronized( Ringer.this ) {
+                if( epochReports == null )
+                    return epochStarted != 0 ? 1.0 : 0.0;
+                return (double)epochReports.size() / epochReports.expected();
+            }
+        }
+        
+        @Override
+        public double getEpochMillis() {
+            synchronized( Ringer.this ) {
+                return epochStarted != 0 ? ( System.nanoTime() - epochStarted ) / 1e6 : 0;
+            }
+        }
+        
+        @Override
+        public String getLeaderPid() {
+            synchronized( Ringer.this ) {
+                return leaderEpoch >= 0 ? String.format( "%x", leaderPid ) : "";
+            }
+        }
+        
+        @Override
+        public int getLeaderEpoch() {
+            synchronized( Ringer.this ) { return leaderEpoch; }
+        }
+        
+        @Override
+        public boolean isRepairing() {
+            synchronized( Ringer.this ) { return repairing; }
+        }
     }
 
     //Shutdown
@@ -162,6 +871,8 @@ public class Ringer extends UnicastRemoteObject implements Remote, Loggable,
 
             ringer = new Ringer( max ); //Ringer object instantiated with max #nodes
             
+            UnicastRemoteObject.exportObject( ringer, 0 ); //Serving remote calls
+            
             LocateRegistry.createRegistry( PORT ); //Creating RMI Registry on port
 
             Logger.info( "Registry created on port " + PORT, ringer ); //Updating log
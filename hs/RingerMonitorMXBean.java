@@ -0,0 +1,44 @@
+
+package hs;
+
+/**
+ * Live view of the Ringer over JMX, registered as hs:type=Ringer,name=Ringer
+ * (see {@link Monitoring}): registrations, the ring, and how far the
+ * current epoch's election has got by the reports that have arrived.
+ */
+public interface RingerMonitorMXBean {
+
+    //Nodes registered so far, and the ring size expected
+    public int getRegistered();
+    public int getRingSize();
+
+    //Nodes that acknowledged their wiring
+    public int getReady();
+
+    //Nodes not found down
+    public int getLiveNodes();
+
+    public int getEpoch();
+
+    //Level of a hierarchical election, "ring" for a flat one
+    public String getLevel();
+
+    //Elections fully reported so far, warm-up included, and how many will be run
+    public int getElectionsDone();
+    public int getElections();
+
+    //Reports on the current epoch, how many are awaited, and the fraction in
+    public int getReportsReceived();
+    public int getReportsExpected();
+    public double getProgress();
+
+    //Milliseconds since the current epoch's election started
+    public double getEpochMillis();
+
+    //Latest leader, in hex, empty while there is none
+    public String getLeaderPid();
+    public int getLeaderEpoch();
+
+    //A failed leader is being replaced
+    public boolean isRepairing();
+}
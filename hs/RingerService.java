@@ -8,10 +8,17 @@ import java.rmi.*;
  *
  * @author Surya Selvaraj
  */
-public interface RingerService extends Remote {
+public interface RingerService extends LeaderService {
     //Registering a node to RMI Registry - Override in Ringer class
     public void registerNode( NodeService n ) throws RemoteException,
             NotBoundException, UnknownHostException, MalformedURLException;
+    //Acknowledging a node is wired and its loop is running
+    public void ready( long pid ) throws RemoteException;
     //Preparing Report - Override in Ringer class
     public void report( Report report ) throws RemoteException;
+    //A node heard no heartbeat from its leader for silentMillis
+    public void leaderLost( long pid, int epoch, long leaderPid, long silentMillis ) 
+            throws RemoteException;
+    //The leader of the epoch has been announced all the way around the ring
+    public void elected( long pid, int epoch ) throws RemoteException;
 }
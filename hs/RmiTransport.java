@@ -0,0 +1,51 @@
+
+package hs;
+
+import java.rmi.RemoteException;
+import java.util.Arrays;
+
+/**
+ * Sends probes by invoking NodeService.send() (or sendBatch()) on the
+ * neighbour: a remote call for an RMI stub, or a plain method call for an
+ * in-memory node.
+ */
+public class RmiTransport implements Transport {
+
+    @Override
+    public void bind( NodeService local ) {
+        //Inbound probes arrive through NodeService.send() already
+    }
+
+    @Override
+    public String endpoint() {
+        return null;
+    }
+
+    @Override
+    public Link connect( final NodeService n ) {
+        return new Link() {
+            @Override
+            public void send( Probe probe ) throws RemoteException {
+                n.send( probe );
+            }
+
+            @Override
+            public void send( Probe[] probes, int count ) throws RemoteException {
+                n.sendBatch( count == probes.length ? probes : Arrays.copyOf( probes, count ) );
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "RMI";
+    }
+}
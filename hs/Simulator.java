@@ -0,0 +1,402 @@
+
+package hs;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Discrete-event simulation of a Hirschberg-Sinclair election on one
+ * thread, in virtual time, for rings far larger than threads allow.
+ *
+ * Nodes are slots in primitive arrays (pid, phase, replies, flags), and
+ * probes in flight are slots of a pool ordered in a binary heap by
+ * delivery time, then by the order they were sent. Each hop takes a delay
+ * drawn from a {@link Delay}; links keep their probes in order, as the
+ * real transports do. Nodes behave as Node does: one random node is
+ * activated, the others join on their first probe, ELECTION probes are
+ * decided by {@link HirschbergSinclair#decide} and the winner is
+ * announced the configured way (-Dhs.announce).
+ *
+ * Every random choice comes from one generator seeded with -Dhs.sim.seed
+ * (default 1), so a run is reproduced exactly; only the wall-clock
+ * columns change. Each run checks that the greatest pid won and that
+ * every node learned it, and compares the messages with the bound of
+ * 8n(1 + log2 n).
+ *
+ * Usage: java hs/Simulator [n | from..to]...   (from..to goes up tenfold)
+ */
+public class Simulator implements Loggable {
+
+    //Seed of every run, set with -Dhs.sim.seed
+    private static final long SEED = Long.getLong( "hs.sim.seed", 1 );
+
+    private static final byte ELECTION = 0, REPLY = 1, ANNOUNCEMENT = 2; //Probe kinds
+    private static final byte RIGHT = 0, LEFT = 1; //Directions
+
+    private static final byte JOINED = 1, HAS_LEADER = 2, LEADER = 4, ANNOUNCED = 8; //Node flags
+
+    private final int n;
+    private final Delay delay;
+    private final Announcement announcement;
+    private final SplittableRandom random;
+
+    //Nodes, by ring position
+    private final long[] pid;
+    private final int[] phase;
+    private final byte[] replies;
+    private final byte[] flags;
+    private final long[] rightFree; //Delivery time of the last probe sent right, links are FIFO
+    private final long[] leftFree;
+
+    //Probes in flight, by slot
+    private long[] time = new long[1024]; //Delivery, in virtual microseconds
+    private long[] seq = new long[1024]; //Order sent, breaks ties
+    private int[] dest = new int[1024];
+    private int[] src = new int[1024]; //Position of the source
+    private int[] hops = new int[1024];
+    private int[] probePhase = new int[1024]; //Phase, or hop budget or span of an announcement
+    private byte[] kind = new byte[1024];
+    private byte[] direction = new byte[1024];
+    private int[] free = new int[1024]; //Slots not in use
+    private int freeCount = 0;
+    private int slots = 0; //Slots handed out so far
+
+    private int[] heap = new int[1024]; //Slots by delivery
+    private int heapSize = 0;
+    private long sent = 0;
+
+    private long now = 0; //Virtual time, microseconds
+
+    //Outcome
+    private long electionMessages = 0;
+    private long announcementMessages = 0;
+    private int leader = -1;
+    private long leaderAt = -1;
+    private long informedAt = 0;
+    private int informed = 0;
+    private int announcementHops = 0;
+    private int inFlight = 0; //Most probes in flight at once
+    private long events = 0;
+
+    public Simulator( int n, long seed, Delay delay, Announcement announcement ) {
+        this.n = n;
+        this.delay = delay;
+        this.announcement = announcement;
+        random = new SplittableRandom( seed );
+
+        pid = new long[n];
+        phase = new int[n];
+        replies = new byte[n];
+        flags = new byte[n];
+        rightFree = new long[n];
+        leftFree = new long[n];
+
+        for( int i = 0; i < n; i++ )
+            pid[i] = random.nextLong();
+    }
+
+    //Running the election to the end, the last probe delivered
+    public void run() {
+        join( random.nextInt( n ) ); //The node the Ringer activates
+
+        while( heapSize > 0 ) {
+            int p = poll();
+            now = time[p];
+            events++;
+            deliver( p );
+        }
+    }
+
+    //A probe arriving at its destination
+    private void deliver( int p ) {
+        int at = dest[p];
+        byte f = flags[at];
+        boolean done = ( f & LEADER ) != 0 ? ( f & ANNOUNCED ) != 0 : ( f & HAS_LEADER ) != 0;
+        if( done ) { //Once done, a node drops election traffic
+            release( p );
+            return;
+        }
+        if( ( f & JOINED ) == 0 && kind[p] != ANNOUNCEMENT )
+            join( at );
+
+        hops[p]++;
+        int from = src[p];
+
+        switch( kind[p] ) {
+            case ELECTION:
+                switch( HirschbergSinclair.decide( pid[at], pid[from], probePhase[p], hops[p] ) ) {
+                    case FORWARD:
+                        send( p, at, direction[p] );
+                        break;
+                    case REPLY:
+                        kind[p] = REPLY;
+                        send( p, at, direction[p] == RIGHT ? LEFT : RIGHT );
+                        break;
+                    case ELECTED:
+                        release( p );
+                        elected( at );
+                        break;
+                    default:
+                        release( p );
+                }
+                break;
+
+            case REPLY:
+                if( from != at ) {
+                    send( p, at, direction[p] );
+                    break;
+                }
+                release( p );
+                if( ++replies[at] >= 2 ) { //Both came back, next phase
+                    replies[at] = 0;
+                    phase[at]++;
+                    probe( at, ELECTION, phase[at], LEFT );
+                    probe( at, ELECTION, phase[at], RIGHT );
+                }
+                break;
+
+            case ANNOUNCEMENT:
+                if( ( f & HAS_LEADER ) == 0 && from != at ) {
+                    flags[at] |= HAS_LEADER;
+                    informed++;
+                    informedAt = now;
+                    announcementHops = Math.max( announcementHops, hops[p] );
+
+                    if( announcement == Announcement.TREE ) {
+                        disseminate( at, from, probePhase[p], hops[p] );
+                        release( p );
+                    } else if( announcement != Announcement.BOTH || hops[p] < probePhase[p] )
+                        send( p, at, direction[p] );
+                    else
+                        release( p );
+                } else { //Back at the leader
+                    flags[at] |= ANNOUNCED;
+                    release( p );
+                }
+                break;
+        }
+    }
+
+    //Joining the election, probing both ways
+    private void join( int at ) {
+        flags[at] |= JOINED;
+        probe( at, ELECTION, 0, LEFT );
+        probe( at, ELECTION, 0, RIGHT );
+    }
+
+    //The node's own probe came all the way around
+    private void elected( int at ) {
+        if( ( flags[at] & HAS_LEADER ) != 0 )
+            return;
+        flags[at] |= HAS_LEADER | LEADER;
+        leader = at;
+        leaderAt = now;
+
+        if( announcement == Announcement.TREE ) {
+            disseminate( at, at, n, 0 );
+            flags[at] |= ANNOUNCED;
+        } else if( announcement == Announcement.BOTH ) {
+            if( n / 2 > 0 )
+                probe( at, ANNOUNCEMENT, n / 2, RIGHT );
+            if( ( n - 1 ) / 2 > 0 )
+                probe( at, ANNOUNCEMENT, ( n - 1 ) / 2, LEFT );
+            flags[at] |= ANNOUNCED;
+        } else
+            probe( at, ANNOUNCEMENT, 0, RIGHT );
+    }
+
+    //Passing the announcement on to the span nodes starting at this one, along skips 2^k
+    private void disseminate( int at, int from, int span, int hopsSoFar ) {
+        for( long d = 1; d < span; d <<= 1 ) {
+            int p = allocate( ANNOUNCEMENT, from, (int)Math.min( d, span - d ), hopsSoFar );
+            direction[p] = RIGHT;
+            dest[p] = (int)( ( at + d ) % n );
+            schedule( p, now + delay.next( random ) ); //A link of its own
+        }
+    }
+
+    //New probe from the node
+    private void probe( int at, byte k, int ph, byte d ) {
+        int p = allocate( k, at, ph, 0 );
+        send( p, at, d );
+    }
+
+    //Sending the probe from the node to its neighbour
+    private void send( int p, int at, byte d ) {
+        direction[p] = d;
+        long t = now + delay.next( random );
+        if( d == RIGHT ) {
+            dest[p] = at + 1 == n ? 0 : at + 1;
+            t = Math.max( t, rightFree[at] );
+            rightFree[at] = t;
+        } else {
+            dest[p] = at == 0 ? n - 1 : at - 1;
+            t = Math.max( t, leftFree[at] );
+            leftFree[at] = t;
+        }
+        schedule( p, t );
+    }
+
+    private void schedule( int p, long t ) {
+        if( kind[p] == ANNOUNCEMENT )
+            announcementMessages++;
+        else
+            electionMessages++;
+        time[p] = t;
+        seq[p] = sent++;
+        push( p );
+    }
+
+    private int allocate( byte k, int from, int ph, int h ) {
+        int p;
+        if( freeCount > 0 )
+            p = free[--freeCount];
+        else {
+            if( slots == time.length )
+                grow();
+            p = slots++;
+        }
+        kind[p] = k;
+        src[p] = from;
+        probePhase[p] = ph;
+        hops[p] = h;
+        return p;
+    }
+
+    private void release( int p ) {
+        free[freeCount++] = p;
+    }
+
+    private void grow() {
+        int size = time.length * 2;
+        time = Arrays.copyOf( time, size );
+        seq = Arrays.copyOf( seq, size );
+        dest = Arrays.copyOf( dest, size );
+        src = Arrays.copyOf( src, size );
+        hops = Arrays.copyOf( hops, size );
+        probePhase = Arrays.copyOf( probePhase, size );
+        kind = Arrays.copyOf( kind, size );
+        direction = Arrays.copyOf( direction, size );
+        free = Arrays.copyOf( free, size );
+        heap = Arrays.copyOf( heap, size );
+    }
+
+    //Whether probe a is delivered before probe b
+    private boolean before( int a, int b ) {
+        return time[a] < time[b] || ( time[a] == time[b] && seq[a] < seq[b] );
+    }
+
+    private void push( int p ) {
+        int i = heapSize++;
+        inFlight = Math.max( inFlight, heapSize );
+        while( i > 0 ) {
+            int parent = ( i - 1 ) >>> 1;
+            if( !before( p, heap[parent] ) )
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = p;
+    }
+
+    private int poll() {
+        int top = heap[0];
+        int last = heap[--heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while( i < half ) {
+            int child = 2 * i + 1;
+            if( child + 1 < heapSize && before( heap[child + 1], heap[child] ) )
+                child++;
+            if( !before( heap[child], last ) )
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        if( heapSize > 0 )
+            heap[i] = last;
+        return top;
+    }
+
+    //Whether the greatest pid won and every other node learned it
+    public boolean correct() {
+        int max = 0;
+        for( int i = 1; i < n; i++ )
+            if( pid[i] > pid[max] )
+                max = i;
+        return leader == max && informed == n - 1;
+    }
+
+    public long electionMessages() {
+        return electionMessages;
+    }
+
+    public long announcementMessages() {
+        return announcementMessages;
+    }
+
+    public long events() {
+        return events;
+    }
+
+    @Override
+    public String logIdent() {
+        return String.format( "Simulator-%d", n );
+    }
+
+    //Ring sizes from the arguments, from..to going up tenfold
+    private static long[] sizes( String[] args ) {
+        long[] sizes = new long[64];
+        int count = 0;
+        for( String arg : args.length > 0 ? args : new String[] { "10..1000000" } ) {
+            int range = arg.indexOf( ".." );
+            if( range < 0 ) {
+                sizes[count++] = Long.parseLong( arg );
+                continue;
+            }
+            long to = Long.parseLong( arg.substring( range + 2 ) );
+            for( long s = Long.parseLong( arg.substring( 0, range ) ); s <= to && count < sizes.length; s *= 10 )
+                sizes[count++] = s;
+        }
+        return Arrays.copyOf( sizes, count );
+    }
+
+    //psvm()
+    public static void main( String[] args ) {
+        Delay delay = Delay.configured();
+        Announcement announcement = Announcement.configured();
+        if( Algorithm.configured() != Algorithm.HS )
+            Logger.warn( "The simulator runs " + Algorithm.HS + " only", null );
+
+        System.out.printf( "Hirschberg-Sinclair, seed %d, link delay %s us, %s announcement%n",
+                SEED, delay, announcement );
+        System.out.printf( "%9s %12s %8s %8s %6s %11s %11s %8s %9s %10s %8s %s%n",
+                "n", "messages", "/nlog2n", "/bound", "phase", "leader", "informed",
+                "ann.hops", "inflight", "events/s", "ms", "check" );
+
+        for( long size : sizes( args ) ) {
+            if( size < 2 || size > Integer.MAX_VALUE ) {
+                Logger.warn( "Skipping ring size " + size, null );
+                continue;
+            }
+            int n = (int)size;
+            long start = System.nanoTime();
+            Simulator sim = new Simulator( n, SEED, delay, announcement );
+            sim.run();
+            long nanos = System.nanoTime() - start;
+
+            double log2n = Math.log( n ) / Math.log( 2 );
+            double bound = 8.0 * n * ( 1 + Math.ceil( log2n ) );
+            double hop = delay.mean(); //Times are shown in mean hop delays
+            if( hop <= 0 || Double.isInfinite( hop ) )
+                hop = 1;
+
+            System.out.printf( "%9d %12d %8.2f %8.3f %6d %11.1f %11.1f %8d %9d %10.0f %8d %s%n",
+                    n, sim.electionMessages, sim.electionMessages / ( n * log2n ),
+                    sim.electionMessages / bound, sim.leader >= 0 ? sim.phase[sim.leader] : -1,
+                    sim.leaderAt / hop, sim.informedAt / hop, sim.announcementHops,
+                    sim.inFlight, sim.events * 1e9 / nanos, nanos / 1000000,
+                    sim.correct() ? "ok" : "FAILED" );
+        }
+    }
+}
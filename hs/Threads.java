@@ -0,0 +1,64 @@
+
+package hs;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the threads that run node loops.
+ *
+ * Virtual threads are used when the running JVM has them (Java 21+), found
+ * reflectively so the sources still build on older JDKs. Without them a
+ * platform thread with a small stack is created instead.
+ */
+public class Threads {
+
+    private static final long PLATFORM_STACK_SIZE = 256 * 1024; //Bytes per fallback thread
+
+    private static final Object VIRTUAL_BUILDER = virtualBuilder(); //Thread.ofVirtual(), or null
+    private static final Method UNSTARTED = unstarted();
+
+    //Whether virtual threads are available in this JVM
+    public static boolean virtualAvailable() {
+        return UNSTARTED != null;
+    }
+
+    //New unstarted platform thread
+    public static Thread platform( Runnable r, String name ) {
+        return new Thread( null, r, name, PLATFORM_STACK_SIZE );
+    }
+
+    //New unstarted virtual thread, or a platform thread if there are none
+    public static Thread virtual( Runnable r, String name ) {
+        if( UNSTARTED != null ) {
+            try {
+                Thread t = (Thread)UNSTARTED.invoke( VIRTUAL_BUILDER, r );
+                t.setName( name );
+                return t;
+            } catch( Exception e ) {
+                Logger.warn( "Could not create a virtual thread, falling back "
+                        + "to a platform thread: " + e, null );
+            }
+        }
+        return platform( r, name );
+    }
+
+    private static Object virtualBuilder() {
+        try {
+            Method ofVirtual = Thread.class.getMethod( "ofVirtual" );
+            return ofVirtual.invoke( null );
+        } catch( Exception e ) { //No virtual threads (or only as a disabled preview)
+            return null;
+        }
+    }
+
+    private static Method unstarted() {
+        if( VIRTUAL_BUILDER == null )
+            return null;
+        try {
+            return Class.forName( "java.lang.Thread$Builder" )
+                    .getMethod( "unstarted", Runnable.class );
+        } catch( Exception e ) {
+            return null;
+        }
+    }
+}
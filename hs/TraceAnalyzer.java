@@ -0,0 +1,311 @@
+
+package hs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges the {@link Journal}s of a run and reconstructs the critical path
+ * of an election: the chain of probes, back from the last node to receive
+ * the announcement, to the node that started it all on its activation.
+ *
+ * Every receipt is matched to its send by sender, receiver, probe id,
+ * hops and direction, and every send to what caused it by the record index it
+ * carries. Each step of the path is either a link (from a send to the
+ * receiver processing the probe, queues and mailbox wait included) or a
+ * node (from processing a probe to sending the next). The time on the
+ * path is then broken down by election phase and by probe type, and the
+ * slowest links are listed.
+ *
+ * Usage: java hs/TraceAnalyzer [directory] [epoch]
+ *
+ * The directory defaults to -Dhs.trace, the epoch to the latest traced.
+ */
+public class TraceAnalyzer {
+
+    private static final int LISTED_STEPS = 40; //Paths longer than this are summed up only
+    private static final int LISTED_LINKS = 10;
+
+    //A probe on a link, as both ends record it
+    private static final class Hop {
+        final long sender;
+        final long receiver; //Tells apart the copies of a TREE announcement
+        final long id;
+        final int hops;
+        final Direction direction;
+
+        Hop( long sender, long receiver, long id, int hops, Direction direction ) {
+            this.sender = sender;
+            this.receiver = receiver;
+            this.id = id;
+            this.hops = hops;
+            this.direction = direction;
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            if( !( o instanceof Hop ) )
+                return false;
+            Hop h = (Hop)o;
+            return sender == h.sender && receiver == h.receiver && id == h.id && hops == h.hops
+                    && direction == h.direction;
+        }
+
+        @Override
+        public int hashCode() {
+            long ends = sender * 31 + receiver;
+            return (int)( id ^ ( id >>> 32 ) ^ ends ^ ( ends >>> 32 ) ) * 31 + hops * 3
+                    + ( direction != null ? direction.ordinal() : 0 );
+        }
+    }
+
+    //One step of the path, ending at the given record
+    private static final class Step {
+        final Journal.Record from;
+        final Journal.Record to;
+        final boolean link; //Between nodes, else within one
+
+        Step( Journal.Record from, Journal.Record to ) {
+            this.from = from;
+            this.to = to;
+            link = from.node != to.node;
+        }
+
+        long nanos() {
+            return to.time - from.time;
+        }
+
+        //The probe the time is spent on: the one in flight, or the one about to be sent
+        Journal.Record probe() {
+            return link ? from : to;
+        }
+    }
+
+    //Time and steps spent under one heading
+    private static final class Share {
+        long nanos = 0;
+        int links = 0;
+        int nodes = 0;
+
+        void add( Step step ) {
+            nanos += step.nanos();
+            if( step.link )
+                links++;
+            else
+                nodes++;
+        }
+    }
+
+    private final Map<Long, List<Journal.Record>> journals = new HashMap<Long, List<Journal.Record>>();
+    private final Map<Hop, Journal.Record> sends = new HashMap<Hop, Journal.Record>();
+    private int records = 0;
+
+    //Reading every journal of the directory
+    public TraceAnalyzer( File dir ) throws IOException {
+        File[] files = dir.listFiles();
+        if( files == null )
+            throw new IOException( "Cannot list " + dir );
+        for( File file : files ) {
+            if( !file.getName().endsWith( Journal.SUFFIX ) )
+                continue;
+            List<Journal.Record> journal = Journal.read( file );
+            if( !journal.isEmpty() )
+                journals.put( journal.get( 0 ).node, journal );
+            records += journal.size();
+        }
+    }
+
+    //Latest epoch traced, -1 for none
+    public int latestEpoch() {
+        int latest = -1;
+        for( List<Journal.Record> journal : journals.values() )
+            for( Journal.Record r : journal )
+                latest = Math.max( latest, r.epoch );
+        return latest;
+    }
+
+    //Indexing the sends of an epoch, returning how many there are
+    private int index( int epoch ) {
+        sends.clear();
+        int count = 0;
+        for( List<Journal.Record> journal : journals.values() )
+            for( Journal.Record r : journal )
+                if( r.epoch == epoch && r.event == Journal.Event.SEND ) {
+                    Hop hop = new Hop( r.node, r.peer, r.id, r.hops, r.direction );
+                    if( !sends.containsKey( hop ) ) //The same probe sent twice down a link, the first will do
+                        sends.put( hop, r );
+                    count++;
+                }
+        return count;
+    }
+
+    //Where the election ends: the last announcement processed, or else the last win
+    private Journal.Record end( int epoch ) {
+        Journal.Record end = null;
+        Journal.Record elected = null;
+        for( List<Journal.Record> journal : journals.values() ) {
+            for( Journal.Record r : journal ) {
+                if( r.epoch != epoch )
+                    continue;
+                if( r.event == Journal.Event.RECEIVE && r.type == MessageType.ANNOUNCEMENT
+                        && ( end == null || r.time > end.time ) )
+                    end = r;
+                if( r.event == Journal.Event.ELECTED && ( elected == null || r.time > elected.time ) )
+                    elected = r;
+            }
+        }
+        return end != null ? end : elected;
+    }
+
+    //What led to the record: the send of a probe received, or the cause of a send
+    private Journal.Record before( Journal.Record r ) {
+        switch( r.event ) {
+            case RECEIVE:
+            case JOIN:
+                return sends.get( new Hop( r.peer, r.node, r.id, r.hops, r.direction ) );
+            case SEND:
+            case ELECTED:
+                if( r.cause < 0 )
+                    return null;
+                return journals.get( r.node ).get( r.cause );
+            default:
+                return null;
+        }
+    }
+
+    //The critical path ending at the given record, from its root on
+    private List<Step> path( Journal.Record end ) {
+        List<Step> steps = new ArrayList<Step>();
+        Journal.Record r = end;
+        Journal.Record prior;
+        while( ( prior = before( r ) ) != null && steps.size() <= records ) { //Bounded, in case of a cycle
+            steps.add( new Step( prior, r ) );
+            r = prior;
+        }
+        Collections.reverse( steps );
+        return steps;
+    }
+
+    //Printing the critical path of the epoch's election
+    public void analyze( int epoch ) {
+        int messages = index( epoch );
+        Journal.Record end = end( epoch );
+        System.out.printf( "Epoch %d: %d nodes traced, %d records, %d election messages%n",
+                epoch, journals.size(), records, messages );
+        if( end == null ) {
+            System.out.println( "No leader was traced in this epoch" );
+            return;
+        }
+
+        List<Step> steps = path( end );
+        Journal.Record root = steps.isEmpty() ? end : steps.get( 0 ).from;
+        int links = 0;
+        for( Step step : steps )
+            if( step.link )
+                links++;
+        System.out.printf( "Critical path: %d hops, %.3f ms, from Node-%x (%s) to Node-%x (%s%s)%n",
+                links, ( end.time - root.time ) / 1e6, root.node, describe( root ), end.node,
+                describe( end ), root.event == Journal.Event.ACTIVATE ? ""
+                : ", the path is cut short: no record of what led to its start" );
+
+        if( steps.size() <= LISTED_STEPS ) {
+            System.out.printf( "%n%10s %10s  %s%n", "at ms", "took ms", "step" );
+            for( Step step : steps )
+                System.out.printf( "%10.3f %10.3f  %s%n", ( step.to.time - root.time ) / 1e6,
+                        step.nanos() / 1e6, describe( step ) );
+        }
+
+        Map<Integer, Share> phases = new TreeMap<Integer, Share>();
+        Map<MessageType, Share> types = new TreeMap<MessageType, Share>();
+        Share onLinks = new Share();
+        Share onNodes = new Share();
+        for( Step step : steps ) {
+            Journal.Record probe = step.probe();
+            if( probe.type != MessageType.ANNOUNCEMENT ) //Its phase is a span or a hop count
+                share( phases, probe.phase ).add( step );
+            if( probe.type != null )
+                share( types, probe.type ).add( step );
+            ( step.link ? onLinks : onNodes ).add( step );
+        }
+        long total = Math.max( 1, end.time - root.time );
+
+        System.out.printf( "%nOn links: %.3f ms (%.1f%%), on nodes: %.3f ms (%.1f%%)%n",
+                onLinks.nanos / 1e6, 100.0 * onLinks.nanos / total,
+                onNodes.nanos / 1e6, 100.0 * onNodes.nanos / total );
+        System.out.printf( "%n%-14s %6s %12s %7s%n", "by", "hops", "ms", "share" );
+        for( Map.Entry<Integer, Share> e : phases.entrySet() )
+            print( "phase " + e.getKey(), e.getValue(), total );
+        for( Map.Entry<MessageType, Share> e : types.entrySet() )
+            print( e.getKey().toString(), e.getValue(), total );
+
+        List<Step> slowest = new ArrayList<Step>();
+        for( Step step : steps )
+            if( step.link )
+                slowest.add( step );
+        Collections.sort( slowest, new Comparator<Step>() {
+            @Override
+            public int compare( Step a, Step b ) {
+                return Long.compare( b.nanos(), a.nanos() );
+            }
+        });
+        System.out.printf( "%nSlowest links on the path:%n" );
+        for( Step step : slowest.subList( 0, Math.min( LISTED_LINKS, slowest.size() ) ) )
+            System.out.printf( "%10.3f ms  %s%n", step.nanos() / 1e6, describe( step ) );
+    }
+
+    private static <K> Share share( Map<K, Share> shares, K key ) {
+        Share share = shares.get( key );
+        if( share == null )
+            shares.put( key, share = new Share() );
+        return share;
+    }
+
+    private static void print( String name, Share share, long total ) {
+        System.out.printf( "%-14s %6d %12.3f %6.1f%%%n", name, share.links,
+                share.nanos / 1e6, 100.0 * share.nanos / total );
+    }
+
+    private static String describe( Journal.Record r ) {
+        if( r.type == null )
+            return r.event.toString().toLowerCase();
+        return String.format( "%s %s phase %d hop %d", r.event.toString().toLowerCase(),
+                r.type, r.phase, r.hops );
+    }
+
+    private static String describe( Step step ) {
+        Journal.Record probe = step.probe();
+        if( step.link )
+            return String.format( "Node-%x -> Node-%x  %s %s phase %d hop %d", step.from.node,
+                    step.to.node, probe.type, probe.direction, probe.phase, probe.hops );
+        return String.format( "Node-%x  %s, then send %s %s phase %d", step.to.node,
+                describe( step.from ), probe.type, probe.direction, probe.phase );
+    }
+
+    public static void main( String[] args ) {
+        String dir = args.length >= 1 ? args[0] : System.getProperty( Journal.PROPERTY );
+        if( dir == null ) {
+            System.err.println( "Usage: java hs/TraceAnalyzer [directory] [epoch]" );
+            System.exit( 1 );
+        }
+
+        try {
+            TraceAnalyzer analyzer = new TraceAnalyzer( new File( dir ) );
+            int epoch = args.length >= 2 ? Integer.parseInt( args[1] ) : analyzer.latestEpoch();
+            if( epoch < 0 ) {
+                System.err.println( "No trace journals in " + dir );
+                System.exit( 1 );
+            }
+            analyzer.analyze( epoch );
+        } catch( IOException ioe ) {
+            Logger.error( "Failed to read the journals: " + ioe, null );
+            System.exit( 1 );
+        }
+    }
+}
@@ -0,0 +1,39 @@
+
+package hs;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+
+/**
+ * Carries probes between neighbouring nodes.
+ *
+ * The control plane (registration, wiring, activation, reports) always goes
+ * through NodeService/RingerService; a Transport only moves probes. A node
+ * binds one transport for its inbound traffic and opens a {@link Link} per
+ * neighbour for its outbound traffic.
+ */
+public interface Transport {
+
+    //Transport picked with -Dhs.transport=rmi|nio
+    public static final String PROPERTY = "hs.transport";
+
+    //Start delivering inbound probes to the given (local) node
+    public void bind( NodeService local ) throws IOException;
+
+    //Address other nodes connect to, null if they just use the NodeService
+    public String endpoint();
+
+    //Outbound link to a neighbour
+    public Link connect( NodeService n ) throws RemoteException;
+
+    public void close();
+
+    //Transport configured for this JVM, with network faults if any are set (see FaultyTransport)
+    public static Transport configured() {
+        String name = System.getProperty( PROPERTY, "rmi" ).trim();
+
+        if( name.equalsIgnoreCase( "nio" ) )
+            return FaultyTransport.configured( new NioTransport( Reachable.HOST_NAME ) );
+        return FaultyTransport.configured( new RmiTransport() );
+    }
+}
@@ -0,0 +1,46 @@
+
+package hs;
+
+import java.io.Serializable;
+
+/**
+ * Everything a node needs to know about its place in the ring, handed over
+ * by the Ringer in a single NodeService.wire() call.
+ */
+public class Wiring implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public final NodeService left; //Left neighbour
+    public final NodeService right; //Right neighbour
+
+    public final int position; //Index of the node in the ring
+    public final int size; //Number of nodes in the ring
+    
+    public final long heartbeat; //Milliseconds between leader heartbeats, 0 for none
+    public final long timeout; //Milliseconds without a heartbeat before the leader is suspected
+    
+    public final Announcement announcement; //How the leader is announced
+    public final NodeService[] skips; //Node 2^k positions to the right at k, for TREE
+    
+    public final boolean persistent; //Stay up after reporting, for the elections to come
+
+    //A plain ring: no heartbeats, announced around it, one election
+    public Wiring( NodeService left, NodeService right, int position, int size ) {
+        this( left, right, position, size, 0, 0, Announcement.RING, null, false );
+    }
+
+    public Wiring( NodeService left, NodeService right, int position, int size,
+            long heartbeat, long timeout, Announcement announcement, NodeService[] skips,
+            boolean persistent ) {
+        this.left = left;
+        this.right = right;
+        this.position = position;
+        this.size = size;
+        this.heartbeat = heartbeat;
+        this.timeout = timeout;
+        this.announcement = announcement;
+        this.skips = skips;
+        this.persistent = persistent;
+    }
+}